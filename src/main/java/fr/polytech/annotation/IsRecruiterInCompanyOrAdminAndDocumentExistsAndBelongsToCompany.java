@@ -12,7 +12,7 @@ import java.lang.annotation.Target;
 @PreAuthorize(
         "hasAnyRole('client_recruiter', 'client_admin') and " +
                 "@companyService.isUserMemberOfCompany(#id, #token) and " +
-                "@minioService.documentExistsAndBelongsToCompany(#id, #objectName)"
+                "@companyDocumentService.documentExistsAndBelongsToCompany(#id, #objectName)"
 )
 public @interface IsRecruiterInCompanyOrAdminAndDocumentExistsAndBelongsToCompany {
 }
@@ -0,0 +1,94 @@
+package fr.polytech.config;
+
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshot;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class ExecutorConfig {
+
+    private final int ADDRESS_LOOKUP_POOL_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("ADDRESS_LOOKUP_POOL_SIZE")).orElse("16"));
+    private final int OUTBOUND_CALL_POOL_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("OUTBOUND_CALL_POOL_SIZE")).orElse("48"));
+    private final int STORAGE_POOL_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("STORAGE_POOL_SIZE")).orElse("8"));
+    private final int LOGO_POOL_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("LOGO_POOL_SIZE")).orElse("2"));
+    private final int LOGO_QUEUE_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("LOGO_QUEUE_SIZE")).orElse("100"));
+
+    /**
+     * Executor used to fan out address lookups to the address microservice.
+     * Tasks keep the trace of the thread submitting them, like those of the outbound call and storage executors.
+     *
+     * @return the executor service
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService addressLookupExecutor() {
+        return ContextExecutorService.wrap(Executors.newFixedThreadPool(ADDRESS_LOOKUP_POOL_SIZE, namedThreadFactory("address-lookup-")), ContextSnapshot::captureAll);
+    }
+
+    /**
+     * Scheduler used to close the address lookup batches once their coalescing window elapsed.
+     *
+     * @return the scheduled executor service
+     */
+    @Bean(destroyMethod = "shutdown")
+    ScheduledExecutorService addressBatchScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(namedThreadFactory("address-batch-"));
+    }
+
+    /**
+     * Executor used to send the hedged calls to the other microservices, both the first attempts and the hedges.
+     *
+     * @return the executor service
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService outboundCallExecutor() {
+        return ContextExecutorService.wrap(Executors.newFixedThreadPool(OUTBOUND_CALL_POOL_SIZE, namedThreadFactory("outbound-")), ContextSnapshot::captureAll);
+    }
+
+    /**
+     * Executor used to run concurrent transfers to and from Minio.
+     *
+     * @return the executor service
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService storageExecutor() {
+        return ContextExecutorService.wrap(Executors.newFixedThreadPool(STORAGE_POOL_SIZE, namedThreadFactory("storage-")), ContextSnapshot::captureAll);
+    }
+
+    /**
+     * Executor used to generate the logo renditions in the background.
+     * Decoding images is memory hungry, so both the pool and its queue are bounded, and tasks beyond them are rejected.
+     *
+     * @return the executor service
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService logoExecutor() {
+        return new ThreadPoolExecutor(LOGO_POOL_SIZE, LOGO_POOL_SIZE, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOGO_QUEUE_SIZE), namedThreadFactory("logo-"));
+    }
+
+    /**
+     * Create a thread factory producing daemon threads with the given name prefix.
+     *
+     * @param prefix the prefix of the thread names
+     * @return the thread factory
+     */
+    private ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
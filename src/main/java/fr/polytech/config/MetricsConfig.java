@@ -0,0 +1,22 @@
+package fr.polytech.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Time the methods of the classes and methods annotated with {@link io.micrometer.core.annotation.Timed}, tagged
+     * by class, method and exception.
+     *
+     * @param meterRegistry the registry to record the timers in
+     * @return the timed aspect
+     */
+    @Bean
+    TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
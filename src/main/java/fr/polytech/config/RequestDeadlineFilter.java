@@ -0,0 +1,42 @@
+package fr.polytech.config;
+
+import fr.polytech.service.RequestDeadline;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Start the time budget of each request before any other filter, so that the authorization checks calling the user
+ * microservice are part of it.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+
+    /**
+     * Set the deadline of the request from its budget header while it is served.
+     *
+     * @param request the request
+     * @param response the response
+     * @param filterChain the rest of the filter chain
+     * @throws ServletException if the request could not be served
+     * @throws IOException if the request could not be served
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        RequestDeadline.set(RequestDeadline.fromBudget(request.getHeader(RequestDeadline.BUDGET_HEADER)));
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package fr.polytech.config;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+@Configuration
+public class ResilienceConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(ResilienceConfig.class);
+
+    public static final String ADDRESS_API = "address-api";
+    public static final String USER_API = "user-api";
+
+    private final float CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = Float.parseFloat(Optional.ofNullable(System.getenv("CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD")).orElse("50"));
+    private final long CIRCUIT_BREAKER_SLOW_CALL_MS = Long.parseLong(Optional.ofNullable(System.getenv("CIRCUIT_BREAKER_SLOW_CALL_MS")).orElse("2000"));
+    private final int CIRCUIT_BREAKER_WINDOW_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("CIRCUIT_BREAKER_WINDOW_SIZE")).orElse("50"));
+    private final int CIRCUIT_BREAKER_MINIMUM_CALLS = Integer.parseInt(Optional.ofNullable(System.getenv("CIRCUIT_BREAKER_MINIMUM_CALLS")).orElse("20"));
+    private final long CIRCUIT_BREAKER_OPEN_MS = Long.parseLong(Optional.ofNullable(System.getenv("CIRCUIT_BREAKER_OPEN_MS")).orElse("10000"));
+    // Address lookups run on the 16 threads of the address lookup executor, each with a primary call and at most one hedge
+    private final int ADDRESS_API_MAX_CONCURRENT_CALLS = Integer.parseInt(Optional.ofNullable(System.getenv("ADDRESS_API_MAX_CONCURRENT_CALLS")).orElse("32"));
+    private final int USER_API_MAX_CONCURRENT_CALLS = Integer.parseInt(Optional.ofNullable(System.getenv("USER_API_MAX_CONCURRENT_CALLS")).orElse("20"));
+
+    /**
+     * Circuit breakers of the other microservices, opened when too many calls fail or are slow.
+     * Client errors are answers of a healthy service, they are not counted as failures.
+     *
+     * @param meterRegistry the registry to count the state transitions in
+     * @return the circuit breaker registry
+     */
+    @Bean
+    CircuitBreakerRegistry circuitBreakerRegistry(MeterRegistry meterRegistry) {
+        CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.custom()
+                .failureRateThreshold(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD)
+                .slowCallRateThreshold(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD)
+                .slowCallDurationThreshold(Duration.ofMillis(CIRCUIT_BREAKER_SLOW_CALL_MS))
+                .slidingWindowSize(CIRCUIT_BREAKER_WINDOW_SIZE)
+                .minimumNumberOfCalls(CIRCUIT_BREAKER_MINIMUM_CALLS)
+                .waitDurationInOpenState(Duration.ofMillis(CIRCUIT_BREAKER_OPEN_MS))
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build();
+
+        CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.of(circuitBreakerConfig);
+
+        circuitBreakerRegistry.getEventPublisher().onEntryAdded(event -> event.getAddedEntry().getEventPublisher()
+                .onStateTransition(transition -> {
+                    logger.warn("Circuit breaker " + transition.getCircuitBreakerName() + " went from " + transition.getStateTransition().getFromState() + " to " + transition.getStateTransition().getToState());
+                    meterRegistry.counter("resilience4j.circuitbreaker.transitions",
+                            "name", transition.getCircuitBreakerName(),
+                            "from", transition.getStateTransition().getFromState().name(),
+                            "to", transition.getStateTransition().getToState().name()).increment();
+                }));
+
+        return circuitBreakerRegistry;
+    }
+
+    /**
+     * Bulkheads of the other microservices, rejecting calls at once beyond their maximum of concurrent calls so that a
+     * slow service cannot hold every thread of this one.
+     *
+     * @param meterRegistry the registry to count the rejected calls in
+     * @return the bulkhead registry
+     */
+    @Bean
+    BulkheadRegistry bulkheadRegistry(MeterRegistry meterRegistry) {
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(Map.of(
+                ADDRESS_API, bulkheadConfig(ADDRESS_API_MAX_CONCURRENT_CALLS),
+                USER_API, bulkheadConfig(USER_API_MAX_CONCURRENT_CALLS)));
+
+        bulkheadRegistry.getEventPublisher().onEntryAdded(event -> event.getAddedEntry().getEventPublisher()
+                .onCallRejected(rejection -> meterRegistry.counter("resilience4j.bulkhead.rejected.calls",
+                        "name", rejection.getBulkheadName()).increment()));
+
+        return bulkheadRegistry;
+    }
+
+    /**
+     * Expose the state, calls and failure rates of the circuit breakers.
+     *
+     * @param circuitBreakerRegistry the circuit breaker registry
+     * @return the metrics binder
+     */
+    @Bean
+    MeterBinder circuitBreakerMetrics(CircuitBreakerRegistry circuitBreakerRegistry) {
+        return TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry);
+    }
+
+    /**
+     * Expose the available and maximum concurrent calls of the bulkheads.
+     *
+     * @param bulkheadRegistry the bulkhead registry
+     * @return the metrics binder
+     */
+    @Bean
+    MeterBinder bulkheadMetrics(BulkheadRegistry bulkheadRegistry) {
+        return TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry);
+    }
+
+    private BulkheadConfig bulkheadConfig(int maxConcurrentCalls) {
+        return BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build();
+    }
+}
@@ -1,17 +1,115 @@
 package fr.polytech.config;
 
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.Optional;
+
 @Configuration
 public class RestTemplateConfig {
 
+    private final int HTTP_CLIENT_MAX_CONNECTIONS = Integer.parseInt(Optional.ofNullable(System.getenv("HTTP_CLIENT_MAX_CONNECTIONS")).orElse("200"));
+    private final int HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE = Integer.parseInt(Optional.ofNullable(System.getenv("HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE")).orElse("50"));
+    private final long HTTP_CLIENT_CONNECT_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_CONNECT_TIMEOUT_MS")).orElse("1000"));
+    private final long HTTP_CLIENT_READ_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_READ_TIMEOUT_MS")).orElse("3000"));
+    private final long HTTP_CLIENT_POOL_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_POOL_TIMEOUT_MS")).orElse("500"));
+    private final long HTTP_CLIENT_KEEP_ALIVE_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_KEEP_ALIVE_SECONDS")).orElse("30"));
+    private final long HTTP_CLIENT_IDLE_EVICTION_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_IDLE_EVICTION_SECONDS")).orElse("30"));
+    private final long HTTP_CLIENT_CONNECTION_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("HTTP_CLIENT_CONNECTION_TTL_SECONDS")).orElse("300"));
+
+    /**
+     * Pool of the connections to the other microservices, limited per instance (route) so that a slow instance cannot
+     * take every connection.
+     *
+     * @return the connection manager
+     */
+    @Bean(destroyMethod = "close")
+    PoolingHttpClientConnectionManager httpClientConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(HTTP_CLIENT_MAX_CONNECTIONS)
+                .setMaxConnPerRoute(HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(HTTP_CLIENT_CONNECT_TIMEOUT_MS))
+                        .setSocketTimeout(Timeout.ofMilliseconds(HTTP_CLIENT_READ_TIMEOUT_MS))
+                        // Instances come and go with Eureka, connections are renewed to follow them
+                        .setTimeToLive(TimeValue.ofSeconds(HTTP_CLIENT_CONNECTION_TTL_SECONDS))
+                        .build())
+                .build();
+    }
+
+    /**
+     * HTTP client reusing the pooled connections. A call waits at most HTTP_CLIENT_POOL_TIMEOUT_MS for a connection,
+     * HTTP_CLIENT_CONNECT_TIMEOUT_MS to connect and HTTP_CLIENT_READ_TIMEOUT_MS for each read of the response.
+     *
+     * @param connectionManager the connection pool
+     * @return the HTTP client
+     */
+    @Bean(destroyMethod = "close")
+    CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(HTTP_CLIENT_POOL_TIMEOUT_MS))
+                        .setResponseTimeout(Timeout.ofMilliseconds(HTTP_CLIENT_READ_TIMEOUT_MS))
+                        .build())
+                // Keep connections alive as long as the server allows, up to HTTP_CLIENT_KEEP_ALIVE_SECONDS
+                .setKeepAliveStrategy((response, context) -> {
+                    TimeValue serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return TimeValue.ofSeconds(Math.min(serverKeepAlive.toSeconds(), HTTP_CLIENT_KEEP_ALIVE_SECONDS));
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(HTTP_CLIENT_IDLE_EVICTION_SECONDS))
+                .build();
+    }
+
+    /**
+     * Expose the leased, pending, available and maximum connections of the pool.
+     *
+     * @param connectionManager the connection pool
+     * @return the metrics binder
+     */
+    @Bean
+    PoolingHttpClientConnectionManagerMetricsBinder httpClientConnectionPoolMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound");
+    }
+
     @LoadBalanced
+    @Primary
+    @Bean
+    RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, CloseableHttpClient httpClient) {
+        return restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .build();
+    }
+
+    /**
+     * Rest template calling an instance chosen by the caller, used to send hedged requests to another instance than
+     * the first attempt. It shares the connection pool of the load balanced one.
+     *
+     * @param restTemplateBuilder the rest template builder
+     * @param httpClient the HTTP client
+     * @return the rest template
+     */
     @Bean
-    RestTemplate restTemplate() {
-        return new RestTemplate();
+    RestTemplate instanceRestTemplate(RestTemplateBuilder restTemplateBuilder, CloseableHttpClient httpClient) {
+        return restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .build();
     }
 
 }
@@ -0,0 +1,110 @@
+package fr.polytech.config;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.aop.ObservedAspect;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+import java.util.Optional;
+
+@Configuration
+public class TracingConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(TracingConfig.class);
+
+    // Logs every finished span, to check the span trees of local runs and tests without a collector
+    private final boolean TRACING_LOG_SPANS = Boolean.parseBoolean(Optional.ofNullable(System.getenv("TRACING_LOG_SPANS")).orElse("false"));
+
+    /**
+     * Observe the methods of the classes and methods annotated with
+     * {@link io.micrometer.observation.annotation.Observed}, which creates a span for each call.
+     *
+     * @param observationRegistry the observation registry
+     * @return the observed aspect
+     */
+    @Bean
+    ObservedAspect observedAspect(ObservationRegistry observationRegistry) {
+        return new ObservedAspect(observationRegistry);
+    }
+
+    /**
+     * Observe every call to a repository, named after the repository interface and method.
+     * Spring Data repositories are proxies created by their factory bean, so the observation is added to each proxy
+     * when it is created.
+     *
+     * @param observationRegistry the observation registry
+     * @return the bean post processor
+     */
+    @Bean
+    static BeanPostProcessor repositoryObservationPostProcessor(ObjectProvider<ObservationRegistry> observationRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> repositoryFactoryBean) {
+                    repositoryFactoryBean.addRepositoryFactoryCustomizer(repositoryFactory -> repositoryFactory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, repositoryInformation) -> {
+                                ObservationRegistry registry = observationRegistry.getObject();
+                                String repository = repositoryInformation.getRepositoryInterface().getSimpleName();
+
+                                proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+                                    String method = invocation.getMethod().getName();
+
+                                    Observation observation = Observation.createNotStarted("repository.calls", registry)
+                                            .contextualName(repository + "#" + method)
+                                            .lowCardinalityKeyValue("repository", repository)
+                                            .lowCardinalityKeyValue("method", method)
+                                            .start();
+
+                                    try (Observation.Scope scope = observation.openScope()) {
+                                        return invocation.proceed();
+                                    } catch (Throwable e) {
+                                        observation.error(e);
+                                        throw e;
+                                    } finally {
+                                        observation.stop();
+                                    }
+                                });
+                            }));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Log the finished spans when TRACING_LOG_SPANS is set, with their parent so that the span trees can be rebuilt.
+     * Run locally with TRACING_SAMPLING_PROBABILITY=1.0 to log every request.
+     *
+     * @return the span handler
+     */
+    @Bean
+    SpanHandler loggingSpanHandler() {
+        if (!TRACING_LOG_SPANS) {
+            return SpanHandler.NOOP;
+        }
+
+        return new SpanHandler() {
+            @Override
+            public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+                logger.info("Span " + span.name()
+                        + " trace=" + context.traceIdString()
+                        + " id=" + context.spanIdString()
+                        + " parent=" + context.parentIdString()
+                        + " duration=" + (span.finishTimestamp() - span.startTimestamp()) + "us"
+                        + " tags=" + span.tags()
+                        + (span.error() != null ? " error=" + span.error().getMessage() : ""));
+                return true;
+            }
+        };
+    }
+}
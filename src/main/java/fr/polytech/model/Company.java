@@ -1,6 +1,7 @@
 package fr.polytech.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 
 import java.util.List;
 import java.util.UUID;
@@ -21,7 +22,9 @@ public class Company {
 
     private String employeesNumberRange;
 
+    // Loaded for up to 100 companies at once when a list of companies is serialized
     @ElementCollection(targetClass = UUID.class, fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
     @CollectionTable(name = "addresses", joinColumns = @JoinColumn(name = "id"))
     @Column(name = "address", nullable = false)
     private List<UUID> addressIdList;
@@ -29,6 +32,7 @@ public class Company {
     private String siretNumber;
 
     @ElementCollection(targetClass = String.class, fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
     @CollectionTable(name = "documents", joinColumns = @JoinColumn(name = "id"))
     @Column(name = "document", nullable = false)
     private List<String> documentsUrl;
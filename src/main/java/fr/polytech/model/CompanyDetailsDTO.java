@@ -16,6 +16,9 @@ public class CompanyDetailsDTO {
 
     private List<String> documentsUrl;
 
+    // True if some addresses could not be fetched and are the last known ones, or missing
+    private boolean degraded;
+
     public CompanyDetailsDTO(UUID id, String name, String logoUrl, String description, List<AddressDTO> addressList, String employeesNumberRange, String siretNumber, List<String> documentsUrl) {
         this.id = id;
         this.name = name;
@@ -90,4 +93,12 @@ public class CompanyDetailsDTO {
     public void setDocumentsUrl(List<String> documentsUrl) {
         this.documentsUrl = documentsUrl;
     }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    public void setDegraded(boolean degraded) {
+        this.degraded = degraded;
+    }
 }
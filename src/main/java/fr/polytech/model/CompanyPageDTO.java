@@ -0,0 +1,31 @@
+package fr.polytech.model;
+
+import java.util.List;
+
+// This DTO is used to return a page of companies along with the cursor of the next page
+public class CompanyPageDTO {
+
+    private List<Company> companies;
+    private String next;
+
+    public CompanyPageDTO(List<Company> companies, String next) {
+        this.companies = companies;
+        this.next = next;
+    }
+
+    public List<Company> getCompanies() {
+        return companies;
+    }
+
+    public void setCompanies(List<Company> companies) {
+        this.companies = companies;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+}
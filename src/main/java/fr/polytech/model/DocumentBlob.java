@@ -0,0 +1,40 @@
+package fr.polytech.model;
+
+import jakarta.persistence.*;
+
+@Entity
+@Table(name = "document_blob", schema = "public")
+public class DocumentBlob {
+
+    // SHA-256 of the content, also the name of the object in the blobs bucket
+    @Id
+    private String hash;
+
+    private long size;
+
+    private long referenceCount;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getReferenceCount() {
+        return referenceCount;
+    }
+
+    public void setReferenceCount(long referenceCount) {
+        this.referenceCount = referenceCount;
+    }
+}
@@ -0,0 +1,49 @@
+package fr.polytech.model;
+
+// This DTO is used to report the outcome of the upload of one document among several
+public class DocumentUploadResultDTO {
+
+    private String fileName;
+    private String url;
+    private boolean success;
+    private String error;
+
+    public DocumentUploadResultDTO(String fileName, String url, boolean success, String error) {
+        this.fileName = fileName;
+        this.url = url;
+        this.success = success;
+        this.error = error;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
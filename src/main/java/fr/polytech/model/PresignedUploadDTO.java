@@ -0,0 +1,51 @@
+package fr.polytech.model;
+
+import java.util.Map;
+
+// This DTO is used to give the client everything it needs to upload a file directly to Minio with a POST form
+public class PresignedUploadDTO {
+
+    private String url;
+    private Map<String, String> formData;
+    private String objectName;
+    private long maxSize;
+
+    public PresignedUploadDTO(String url, Map<String, String> formData, String objectName, long maxSize) {
+        this.url = url;
+        this.formData = formData;
+        this.objectName = objectName;
+        this.maxSize = maxSize;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Map<String, String> getFormData() {
+        return formData;
+    }
+
+    public void setFormData(Map<String, String> formData) {
+        this.formData = formData;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+}
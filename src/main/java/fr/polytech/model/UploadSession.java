@@ -0,0 +1,75 @@
+package fr.polytech.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name = "upload_session", schema = "public")
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    private UUID companyId;
+
+    private String objectName;
+
+    private String contentType;
+
+    private Instant createdAt;
+
+    // Bytes of the chunks accepted so far, counted before they are stored so that concurrent chunks cannot exceed the limit
+    @Column(columnDefinition = "bigint not null default 0")
+    private long receivedSize;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public UUID getCompanyId() {
+        return companyId;
+    }
+
+    public void setCompanyId(UUID companyId) {
+        this.companyId = companyId;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getReceivedSize() {
+        return receivedSize;
+    }
+
+    public void setReceivedSize(long receivedSize) {
+        this.receivedSize = receivedSize;
+    }
+}
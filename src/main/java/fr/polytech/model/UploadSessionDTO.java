@@ -0,0 +1,63 @@
+package fr.polytech.model;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+// This DTO is used to describe a resumable upload session and the chunks it already received
+public class UploadSessionDTO {
+
+    private UUID id;
+    private String objectName;
+    private long minChunkSize;
+    private Instant expiresAt;
+    private Map<Integer, Long> receivedChunks;
+
+    public UploadSessionDTO(UUID id, String objectName, long minChunkSize, Instant expiresAt, Map<Integer, Long> receivedChunks) {
+        this.id = id;
+        this.objectName = objectName;
+        this.minChunkSize = minChunkSize;
+        this.expiresAt = expiresAt;
+        this.receivedChunks = receivedChunks;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+
+    public long getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public void setMinChunkSize(long minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public Map<Integer, Long> getReceivedChunks() {
+        return receivedChunks;
+    }
+
+    public void setReceivedChunks(Map<Integer, Long> receivedChunks) {
+        this.receivedChunks = receivedChunks;
+    }
+}
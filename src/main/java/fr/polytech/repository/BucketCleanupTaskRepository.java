@@ -0,0 +1,23 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.BucketCleanupTask;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface BucketCleanupTaskRepository extends JpaRepository<BucketCleanupTask, UUID> {
+    List<BucketCleanupTask> findTop20ByNextAttemptAtLessThanEqualOrderByNextAttemptAt(Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE BucketCleanupTask t SET t.nextAttemptAt = :leaseUntil WHERE t.id = :id AND t.nextAttemptAt <= :now")
+    int claim(@Param("id") UUID id, @Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil);
+}
@@ -2,15 +2,44 @@ package fr.polytech.repository;
 
 import fr.polytech.model.Company;
 import fr.polytech.model.CompanyMinimizedDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface CompanyRepository extends JpaRepository<Company, UUID> {
     @Query("SELECT new fr.polytech.model.CompanyMinimizedDTO(c.id, c.name) FROM Company c")
     List<CompanyMinimizedDTO> getAllCompaniesMinimized();
+
+    // Only one of the two collections can be joined (both are bags), the addresses are the one needed right away
+    @EntityGraph(attributePaths = "addressIdList")
+    Optional<Company> findWithAddressIdListById(UUID id);
+
+    @Query("SELECT c FROM Company c " +
+            "WHERE c.id > :afterId " +
+            "AND (:namePrefix IS NULL OR c.name LIKE CONCAT(:namePrefix, '%') ESCAPE '\\') " +
+            "AND (:employeesNumberRange IS NULL OR c.employeesNumberRange = :employeesNumberRange) " +
+            "ORDER BY c.id")
+    List<Company> findPageOrderedById(@Param("afterId") UUID afterId,
+                                      @Param("namePrefix") String namePrefix,
+                                      @Param("employeesNumberRange") String employeesNumberRange,
+                                      Pageable pageable);
+
+    @Query("SELECT c FROM Company c " +
+            "WHERE (c.name > :afterName OR (c.name = :afterName AND c.id > :afterId)) " +
+            "AND (:namePrefix IS NULL OR c.name LIKE CONCAT(:namePrefix, '%') ESCAPE '\\') " +
+            "AND (:employeesNumberRange IS NULL OR c.employeesNumberRange = :employeesNumberRange) " +
+            "ORDER BY c.name, c.id")
+    List<Company> findPageOrderedByName(@Param("afterName") String afterName,
+                                        @Param("afterId") UUID afterId,
+                                        @Param("namePrefix") String namePrefix,
+                                        @Param("employeesNumberRange") String employeesNumberRange,
+                                        Pageable pageable);
 }
@@ -0,0 +1,39 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.DocumentBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface DocumentBlobRepository extends JpaRepository<DocumentBlob, String> {
+    @Transactional
+    @Modifying
+    @Query("UPDATE DocumentBlob b SET b.referenceCount = b.referenceCount + 1 WHERE b.hash = :hash")
+    int incrementReferenceCount(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO public.document_blob (hash, size, reference_count) VALUES (:hash, :size, 1) " +
+            "ON CONFLICT (hash) DO UPDATE SET reference_count = document_blob.reference_count + 1", nativeQuery = true)
+    void insertOrIncrementReferenceCount(@Param("hash") String hash, @Param("size") long size);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM DocumentBlob b WHERE b.hash = :hash")
+    Optional<DocumentBlob> findByHashForUpdate(@Param("hash") String hash);
+
+    // Held until the end of the transaction, even when no row exists yet for the content
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(hashtext(:hash))", nativeQuery = true)
+    Integer lockContent(@Param("hash") String hash);
+
+    // Serializes the writes of a document, so that the content hash read from it is released only once
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(hashtext(:bucketName || '/' || :objectName))", nativeQuery = true)
+    Integer lockDocument(@Param("bucketName") String bucketName, @Param("objectName") String objectName);
+}
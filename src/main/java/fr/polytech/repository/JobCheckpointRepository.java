@@ -0,0 +1,24 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Repository
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO public.job_checkpoint (name) VALUES (:name) ON CONFLICT (name) DO NOTHING", nativeQuery = true)
+    void createIfAbsent(@Param("name") String name);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE JobCheckpoint j SET j.leaseUntil = :leaseUntil WHERE j.name = :name AND (j.leaseUntil IS NULL OR j.leaseUntil <= :now)")
+    int claim(@Param("name") String name, @Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil);
+}
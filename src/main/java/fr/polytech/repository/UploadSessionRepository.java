@@ -0,0 +1,28 @@
+package fr.polytech.repository;
+
+import fr.polytech.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, UUID> {
+    List<UploadSession> findByCreatedAtBefore(Instant createdAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.receivedSize = s.receivedSize + :size WHERE s.id = :id AND s.receivedSize + :size <= :maxSize")
+    int reserveReceivedSize(@Param("id") UUID id, @Param("size") long size, @Param("maxSize") long maxSize);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.receivedSize = CASE WHEN s.receivedSize > :size THEN s.receivedSize - :size ELSE 0 END WHERE s.id = :id")
+    void releaseReceivedSize(@Param("id") UUID id, @Param("size") long size);
+}
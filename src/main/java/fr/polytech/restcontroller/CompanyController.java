@@ -1,36 +1,63 @@
 package fr.polytech.restcontroller;
 
 import fr.polytech.annotation.IsAdmin;
+import fr.polytech.annotation.IsRecruiterInCompanyOrAdmin;
 import fr.polytech.annotation.IsRecruiterInCompanyOrAdminAndDocumentExistsAndBelongsToCompany;
 import fr.polytech.annotation.IsRecruiterOrAdmin;
 import fr.polytech.model.AddressDTO;
 import fr.polytech.model.Company;
 import fr.polytech.model.CompanyDetailsDTO;
-import fr.polytech.model.CompanyMinimizedDTO;
+import fr.polytech.model.CompanyPageDTO;
+import fr.polytech.model.DocumentUploadResultDTO;
+import fr.polytech.model.PresignedUploadDTO;
+import fr.polytech.model.UploadSessionDTO;
+import fr.polytech.service.CompanyDocumentService;
+import fr.polytech.service.AddressService;
 import fr.polytech.service.CompanyService;
+import fr.polytech.service.LogoService;
+import fr.polytech.service.MinimizedCompanySnapshot;
 import fr.polytech.service.MinioService;
+import fr.polytech.service.UploadSessionService;
+import io.micrometer.core.annotation.Timed;
+import io.minio.GetObjectResponse;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
 import io.minio.errors.MinioException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.Produces;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/v1/company")
+@Timed(value = "company.controller", histogram = true)
 public class CompanyController {
 
     private final Logger logger = LoggerFactory.getLogger(CompanyController.class);
@@ -41,9 +68,29 @@ public class CompanyController {
     @Autowired
     private MinioService minioService;
 
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @Autowired
+    private CompanyDocumentService companyDocumentService;
+
+    @Autowired
+    private LogoService logoService;
+
     private final String MINIO_BASE_URI = Optional.ofNullable(System.getenv("MINIO_BASE_URI")).orElse("http://localhost:9000");
     private final String GATEWAY_BASE_URI = Optional.ofNullable(System.getenv("GATEWAY_BASE_URI")).orElse("http://localhost:8090");
 
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final int DOWNLOAD_BUFFER_SIZE = 8 * 1024;
+    // Attempts to open a document that is overwritten between its stat and its read
+    private static final int DOWNLOAD_ATTEMPTS = 3;
+    private static final String ZIP_MEDIA_TYPE = "application/zip";
+
+    private final long LOGO_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("LOGO_MAX_SIZE")).orElse(String.valueOf(10L * 1024 * 1024)));
+    private final long DOCUMENT_STREAM_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("DOCUMENT_STREAM_MAX_SIZE")).orElse(String.valueOf(100L * 1024 * 1024)));
+    private final long UPLOAD_CHUNK_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("UPLOAD_CHUNK_MAX_SIZE")).orElse(String.valueOf(64L * 1024 * 1024)));
+
     /**
      * Get all companies.
      *
@@ -55,6 +102,55 @@ public class CompanyController {
         return ResponseEntity.ok(companyService.getAllCompanies());
     }
 
+    /**
+     * Export all companies as newline-delimited JSON, streamed directly to the response.
+     *
+     * @param gzip     True to gzip the response.
+     * @param response The HTTP response to write to.
+     * @throws IOException If the companies could not be written.
+     */
+    @GetMapping("/export")
+    @IsAdmin
+    @Produces(NDJSON_MEDIA_TYPE)
+    public void exportCompanies(@RequestParam(value = "gzip", defaultValue = "false") boolean gzip, HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON_MEDIA_TYPE);
+
+        OutputStream outputStream = new BufferedOutputStream(response.getOutputStream(), EXPORT_BUFFER_SIZE);
+
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            outputStream = new GZIPOutputStream(outputStream, EXPORT_BUFFER_SIZE);
+        }
+
+        try (OutputStream exportStream = outputStream) {
+            companyService.exportCompanies(exportStream);
+        }
+    }
+
+    /**
+     * Get a page of companies, using keyset pagination.
+     *
+     * @param cursor               The cursor of the page, as returned in the "next" field of the previous page.
+     * @param size                 The number of companies of the page, capped by the server.
+     * @param sort                 The order of the companies, either "id" or "name".
+     * @param namePrefix           Only return companies whose name starts with this prefix.
+     * @param employeesNumberRange Only return companies with this employees number range.
+     * @return The page of companies and the cursor of the next page.
+     */
+    @GetMapping("/page")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CompanyPageDTO> getCompanyPage(@RequestParam(value = "cursor", required = false) String cursor,
+                                                         @RequestParam(value = "size", required = false) Integer size,
+                                                         @RequestParam(value = "sort", defaultValue = "id") String sort,
+                                                         @RequestParam(value = "namePrefix", required = false) String namePrefix,
+                                                         @RequestParam(value = "employeesNumberRange", required = false) String employeesNumberRange) {
+        try {
+            return ResponseEntity.ok(companyService.getCompanyPage(cursor, size, sort, namePrefix, employeesNumberRange));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Get company by id.
      *
@@ -87,18 +183,30 @@ public class CompanyController {
             return ResponseEntity.notFound().build();
         } catch (HttpClientErrorException e) {
             return ResponseEntity.badRequest().build();
+        } catch (HttpServerErrorException e) {
+            return ResponseEntity.status(e.getStatusCode()).build();
         }
     }
 
     /**
      * Get all companies with only their id and name.
      *
-     * @return List of all companies with only their id and name.
+     * @param ifNoneMatch The ETag of the list the client already has, if any.
+     * @return List of all companies with only their id and name, or 304 if the client's list is up to date.
      */
     @GetMapping("/minimized")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<CompanyMinimizedDTO>> getAllCompaniesMinimized() {
-        return ResponseEntity.ok(companyService.getAllCompaniesMinimized());
+    public ResponseEntity<byte[]> getAllCompaniesMinimized(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        MinimizedCompanySnapshot.Snapshot snapshot = companyService.getAllCompaniesMinimized();
+
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, snapshot.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(snapshot.etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.json());
     }
 
     /**
@@ -106,7 +214,8 @@ public class CompanyController {
      *
      * @param token The token of the recruiter.
      * @param id    The id of the recruiter.
-     * @return List of all addresses of the company.
+     * @return List of all addresses of the company. If the address microservice is unavailable, the last known
+     * addresses are returned with a Warning header.
      */
     @GetMapping("/address-list/{id}")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
@@ -114,9 +223,18 @@ public class CompanyController {
         try {
             String pureToken = token.split(" ")[1];
 
-            return ResponseEntity.ok(companyService.getCompanyAddressList(id, pureToken));
+            AddressService.AddressListResult addressListResult = companyService.getCompanyAddressList(id, pureToken);
+
+            if (addressListResult.degraded()) {
+                return ResponseEntity.ok()
+                        .header(HttpHeaders.WARNING, "110 - \"Response is Stale\"")
+                        .body(addressListResult.addresses());
+            }
+            return ResponseEntity.ok(addressListResult.addresses());
         } catch (NotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (HttpClientErrorException e) {
+            return ResponseEntity.status(e.getStatusCode()).build();
         }
     }
 
@@ -176,6 +294,20 @@ public class CompanyController {
         }
     }
 
+    /**
+     * Invalidate the cached company memberships of a user.
+     *
+     * @param userId The id of the user.
+     * @return True once the memberships were invalidated.
+     */
+    @DeleteMapping("/membership-cache/{userId}")
+    @IsAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Boolean> invalidateUserMemberships(@PathVariable("userId") UUID userId) {
+        companyService.invalidateUserMemberships(userId);
+        return ResponseEntity.ok(true);
+    }
+
     /**
      * Change the company's logo.
      *
@@ -206,6 +338,8 @@ public class CompanyController {
 
             companyService.updateCompany(company);
 
+            logoService.scheduleRenditions(id);
+
             logger.info("Logo changed successfully");
 
             return ResponseEntity.ok(true);
@@ -218,6 +352,90 @@ public class CompanyController {
         }
     }
 
+    /**
+     * Redirect to the company's logo, resized for the size it is displayed at.
+     * The original logo is served while its renditions are being generated.
+     *
+     * @param id   Company id.
+     * @param size The size the logo is displayed at, in pixels. The original logo is served if absent.
+     * @return A redirection to the logo.
+     */
+    @GetMapping("/logo/{id}")
+    public ResponseEntity<Void> getCompanyLogo(@PathVariable("id") UUID id, @RequestParam(value = "size", required = false) Integer size) {
+        if (size != null && size <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(URI.create(logoService.getLogoUrl(id, size)))
+                .build();
+    }
+
+    /**
+     * Get a presigned form to upload the company's logo directly to Minio.
+     * Once uploaded, the logo must be confirmed with {@link #confirmCompanyLogoUpload(UUID)}.
+     *
+     * @param id          Company id.
+     * @param contentType The content type of the logo, which must be an image.
+     * @return The URL and form fields of the upload.
+     */
+    @PostMapping("/logo/{id}/upload-url")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PresignedUploadDTO> getCompanyLogoUploadUrl(@PathVariable("id") UUID id, @RequestParam("contentType") String contentType) {
+        if (!contentType.startsWith("image/")) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            companyService.getCompanyById(id);
+
+            String bucketName = "logo-" + id.toString();
+            Map<String, String> formData = minioService.getPresignedUploadFormData(bucketName, "logo", contentType, LOGO_MAX_SIZE, true);
+
+            return ResponseEntity.ok(new PresignedUploadDTO(MINIO_BASE_URI + "/" + bucketName, formData, "logo", LOGO_MAX_SIZE));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Confirm a logo uploaded directly to Minio and set it as the company's logo.
+     *
+     * @param id Company id.
+     * @return True if the logo was changed, 404 if it was not uploaded.
+     */
+    @PostMapping("/logo/{id}/upload-confirmation")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Boolean> confirmCompanyLogoUpload(@PathVariable("id") UUID id) {
+        String bucketName = "logo-" + id.toString();
+
+        try {
+            minioService.statObject(bucketName, "logo");
+        } catch (ErrorResponseException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+
+        try {
+            Company company = companyService.getCompanyById(id);
+            company.setLogoUrl(MINIO_BASE_URI + "/" + bucketName + "/logo");
+            companyService.updateCompany(company);
+            logoService.scheduleRenditions(id);
+            return ResponseEntity.ok(true);
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (HttpClientErrorException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * Add a document to the company.
      *
@@ -234,13 +452,11 @@ public class CompanyController {
             logger.info("Adding document to company with id " + id);
             Company company = companyService.getCompanyById(id);
 
-            String bucketName = "documents-" + id.toString();
-
-            minioService.uploadFile(bucketName, file.getOriginalFilename(), file, false);
+            String documentUrl = companyDocumentService.storeDocument(id, file.getOriginalFilename(), file);
 
             List<String> documentsUrl = company.getDocumentsUrl();
 
-            documentsUrl.add(GATEWAY_BASE_URI + "/" + bucketName + "/" + file.getOriginalFilename());
+            documentsUrl.add(documentUrl);
 
             companyService.updateCompany(company);
 
@@ -254,6 +470,241 @@ public class CompanyController {
         }
     }
 
+    /**
+     * Add several documents to the company at once.
+     * The documents are uploaded concurrently and the company is updated once for all of them.
+     *
+     * @param id    Company id.
+     * @param files Documents to add.
+     * @return The outcome of the upload of each document.
+     */
+    @PatchMapping("/documents/{id}")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes(MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<DocumentUploadResultDTO>> addCompanyDocuments(@PathVariable("id") UUID id, @RequestParam("documents") List<MultipartFile> files) {
+        try {
+            return ResponseEntity.ok(companyDocumentService.uploadDocuments(id, files));
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (HttpClientErrorException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Upload a document to the company from the raw request body, streamed to Minio as it arrives.
+     *
+     * @param id         Company id.
+     * @param objectName The name of the document.
+     * @param request    The request, whose body is the document.
+     * @return True if the document was added, false otherwise.
+     */
+    @PutMapping("/document/{id}/{objectName}")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Boolean> uploadCompanyDocument(@PathVariable("id") UUID id, @PathVariable("objectName") String objectName, HttpServletRequest request) {
+        long contentLength = request.getContentLengthLong();
+
+        if (contentLength < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+        }
+        if (contentLength > DOCUMENT_STREAM_MAX_SIZE) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        try {
+            logger.info("Streaming document " + objectName + " to company with id " + id);
+            Company company = companyService.getCompanyById(id);
+
+            String documentUrl = companyDocumentService.storeDocument(id, objectName, request.getInputStream(), contentLength, request.getContentType());
+
+            companyService.addDocumentUrls(company.getId(), List.of(documentUrl));
+
+            return ResponseEntity.ok(true);
+        } catch (IOException | NoSuchAlgorithmException | InvalidKeyException | HttpClientErrorException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get a presigned form to upload a document directly to Minio, in a staging object.
+     * Once uploaded, the document must be confirmed with {@link #confirmCompanyDocumentUpload(UUID, String)}.
+     *
+     * @param id          Company id.
+     * @param objectName  The name of the document.
+     * @param contentType The content type of the document.
+     * @return The URL and form fields of the upload.
+     */
+    @PostMapping("/document/{id}/upload-url")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PresignedUploadDTO> getCompanyDocumentUploadUrl(@PathVariable("id") UUID id, @RequestParam("objectName") String objectName, @RequestParam("contentType") String contentType) {
+        try {
+            companyService.getCompanyById(id);
+
+            CompanyDocumentService.StoredContent stagingObject = companyDocumentService.getUploadStagingObject(id, objectName);
+            Map<String, String> formData = minioService.getPresignedUploadFormData(stagingObject.bucketName(), stagingObject.objectName(), contentType, DOCUMENT_STREAM_MAX_SIZE, false);
+
+            return ResponseEntity.ok(new PresignedUploadDTO(MINIO_BASE_URI + "/" + stagingObject.bucketName(), formData, objectName, DOCUMENT_STREAM_MAX_SIZE));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Confirm a document uploaded directly to Minio, move it to the documents of the company and add it to the company.
+     *
+     * @param id         Company id.
+     * @param objectName The name of the document.
+     * @return True if the document was added, 404 if it was not uploaded.
+     */
+    @PostMapping("/document/{id}/upload-confirmation")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Boolean> confirmCompanyDocumentUpload(@PathVariable("id") UUID id, @RequestParam("objectName") String objectName) {
+        try {
+            companyService.getCompanyById(id);
+
+            String documentUrl = companyDocumentService.confirmUploadedDocument(id, objectName);
+            companyService.addDocumentUrls(id, List.of(documentUrl));
+            return ResponseEntity.ok(true);
+        } catch (NotFoundException | ErrorResponseException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException | HttpClientErrorException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Start a resumable upload session for a large document.
+     *
+     * @param id          Company id.
+     * @param objectName  The name of the document.
+     * @param contentType The content type of the document.
+     * @return The new upload session.
+     */
+    @PostMapping("/document/{id}/upload-sessions")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSessionDTO> createDocumentUploadSession(@PathVariable("id") UUID id, @RequestParam("objectName") String objectName, @RequestParam(value = "contentType", defaultValue = MediaType.APPLICATION_OCTET_STREAM_VALUE) String contentType) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.createSession(id, objectName, contentType));
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Get an upload session and the chunks it already received.
+     *
+     * @param id        Company id.
+     * @param sessionId The id of the upload session.
+     * @return The upload session.
+     */
+    @GetMapping("/document/{id}/upload-sessions/{sessionId}")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSessionDTO> getDocumentUploadSession(@PathVariable("id") UUID id, @PathVariable("sessionId") UUID sessionId) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.getSession(id, sessionId));
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Upload a chunk of an upload session from the raw request body.
+     *
+     * @param id          Company id.
+     * @param sessionId   The id of the upload session.
+     * @param chunkNumber The number of the chunk, starting at 1.
+     * @param request     The request, whose body is the chunk.
+     * @return True if the chunk was stored.
+     */
+    @PutMapping("/document/{id}/upload-sessions/{sessionId}/chunks/{chunkNumber}")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Boolean> uploadDocumentChunk(@PathVariable("id") UUID id, @PathVariable("sessionId") UUID sessionId, @PathVariable("chunkNumber") int chunkNumber, HttpServletRequest request) {
+        long contentLength = request.getContentLengthLong();
+
+        if (contentLength < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+        }
+        if (contentLength > UPLOAD_CHUNK_MAX_SIZE) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        try {
+            uploadSessionService.uploadChunk(id, sessionId, chunkNumber, request.getInputStream(), contentLength);
+            return ResponseEntity.ok(true);
+        } catch (IllegalArgumentException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Complete an upload session: assemble its chunks into the document and add the document to the company.
+     *
+     * @param id        Company id.
+     * @param sessionId The id of the upload session.
+     * @return True if the document was added.
+     */
+    @PostMapping("/document/{id}/upload-sessions/{sessionId}/complete")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Boolean> completeDocumentUploadSession(@PathVariable("id") UUID id, @PathVariable("sessionId") UUID sessionId) {
+        try {
+            uploadSessionService.completeSession(id, sessionId);
+            return ResponseEntity.ok(true);
+        } catch (IllegalArgumentException | NoSuchAlgorithmException | InvalidKeyException | HttpClientErrorException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Abort an upload session and remove the chunks it received.
+     *
+     * @param id        Company id.
+     * @param sessionId The id of the upload session.
+     * @return True if the session was aborted.
+     */
+    @DeleteMapping("/document/{id}/upload-sessions/{sessionId}")
+    @IsRecruiterOrAdmin
+    @Produces(MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Boolean> abortDocumentUploadSession(@PathVariable("id") UUID id, @PathVariable("sessionId") UUID sessionId) {
+        try {
+            uploadSessionService.abortSession(id, sessionId);
+            return ResponseEntity.ok(true);
+        } catch (NotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Get the private URL of a document.
      *
@@ -266,7 +717,7 @@ public class CompanyController {
     @Produces(MediaType.TEXT_PLAIN_VALUE)
     public ResponseEntity<String> getDocument(@PathVariable("id") UUID id, @PathVariable("objectName") String objectName) {
         try {
-            return ResponseEntity.ok(minioService.getPrivateDocumentUrl("documents-" + id.toString(), objectName));
+            return ResponseEntity.ok(companyDocumentService.getDocumentUrl(id, objectName));
         } catch (MinioException | IOException e) {
             return ResponseEntity.internalServerError().build();
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
@@ -274,6 +725,145 @@ public class CompanyController {
         }
     }
 
+    /**
+     * Download every document of the company as a ZIP archive, streamed to the response as it is built.
+     *
+     * @param id       The id of the company.
+     * @param token    The token of the user.
+     * @param response The HTTP response to write to.
+     * @throws IOException If the archive could not be written.
+     */
+    @GetMapping("/documents/{id}/archive")
+    @IsRecruiterInCompanyOrAdmin
+    @Produces(ZIP_MEDIA_TYPE)
+    public void downloadDocumentArchive(@PathVariable("id") UUID id, @RequestHeader("Authorization") String token, HttpServletResponse response) throws IOException {
+        try {
+            companyService.getCompanyById(id);
+        } catch (NotFoundException e) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        response.setContentType(ZIP_MEDIA_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("documents-" + id + ".zip").build().toString());
+
+        // Not closed on failure, so that an error raised before the first byte can still change the status
+        OutputStream outputStream = new BufferedOutputStream(response.getOutputStream(), EXPORT_BUFFER_SIZE);
+        try {
+            companyDocumentService.writeArchive(id, outputStream);
+            outputStream.flush();
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Error while archiving the documents of company with id " + id + ": " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+        }
+    }
+
+    /**
+     * Download a document through the API, for clients that cannot reach Minio directly.
+     * The content is streamed from Minio with a fixed size buffer, a single byte range can be requested.
+     *
+     * @param id          The id of the company.
+     * @param objectName  The name of the object.
+     * @param token       The token of the user.
+     * @param range       The byte range to download, e.g. "bytes=0-1023".
+     * @param ifRange     Only honor the range if the document still has this ETag.
+     * @param ifNoneMatch The ETags of the copies the client already has.
+     * @param response    The HTTP response to write to.
+     * @throws IOException If the document could not be written.
+     */
+    @GetMapping("/document/{id}/{objectName}/content")
+    @IsRecruiterInCompanyOrAdminAndDocumentExistsAndBelongsToCompany
+    public void downloadDocument(@PathVariable("id") UUID id,
+                                 @PathVariable("objectName") String objectName,
+                                 @RequestHeader("Authorization") String token,
+                                 @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                 @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                 HttpServletResponse response) throws IOException {
+        GetObjectResponse content = null;
+        try {
+            CompanyDocumentService.StoredContent storedContent = companyDocumentService.resolveDocument(id, objectName);
+
+            // The content is only read if it still has the stated ETag, so that the headers describe the bytes sent
+            for (int attempt = 1; content == null; attempt++) {
+                StatObjectResponse stat = minioService.statObject(storedContent.bucketName(), storedContent.objectName());
+
+                String etag = "\"" + stat.etag() + "\"";
+                long size = stat.size();
+
+                response.setHeader(HttpHeaders.ETAG, etag);
+                response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+                if (ifNoneMatch != null && etagMatches(ifNoneMatch, etag)) {
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return;
+                }
+
+                long[] byteRange = null;
+                if (range != null && (ifRange == null || ifRange.trim().equals(etag))) {
+                    byteRange = parseByteRange(range, size);
+
+                    if (byteRange != null && byteRange.length == 0) {
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                        response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                        return;
+                    }
+                }
+
+                try {
+                    if (byteRange == null) {
+                        content = minioService.getObject(storedContent.bucketName(), storedContent.objectName(), 0, null, stat.etag());
+                        response.setContentLengthLong(size);
+                    } else {
+                        long length = byteRange[1] - byteRange[0] + 1;
+                        content = minioService.getObject(storedContent.bucketName(), storedContent.objectName(), byteRange[0], length, stat.etag());
+                        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + size);
+                        response.setContentLengthLong(length);
+                    }
+                } catch (ErrorResponseException e) {
+                    if (!"PreconditionFailed".equals(e.errorResponse().code()) || attempt >= DOWNLOAD_ATTEMPTS) {
+                        throw e;
+                    }
+                    logger.info("Document " + objectName + " changed while it was opened, opening it again");
+                    continue;
+                }
+
+                response.setContentType(Optional.ofNullable(stat.contentType()).orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE));
+            }
+
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline().filename(objectName, StandardCharsets.UTF_8).build().toString());
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                response.setStatus(HttpStatus.NOT_FOUND.value());
+            } else if ("PreconditionFailed".equals(code)) {
+                // The document kept changing, the client can retry
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            } else {
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+            return;
+        } catch (MinioException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Error while downloading document " + objectName + ": " + e.getMessage());
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return;
+        }
+
+        try (InputStream inputStream = content) {
+            OutputStream outputStream = response.getOutputStream();
+            byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
     /**
      * Delete a document.
      *
@@ -286,7 +876,7 @@ public class CompanyController {
     @Produces(MediaType.TEXT_PLAIN_VALUE)
     public ResponseEntity<Boolean> deleteDocument(@PathVariable("id") UUID id, @PathVariable("objectName") String objectName, @RequestHeader("Authorization") String token) {
         try {
-            minioService.deleteFileFromPrivateBucket("documents-" + id.toString(), objectName);
+            companyDocumentService.deleteDocument(id, objectName);
 
             Company company = companyService.getCompanyById(id);
 
@@ -303,4 +893,64 @@ public class CompanyController {
         }
     }
 
+    /**
+     * Check if an ETag matches an If-None-Match header, using the weak comparison.
+     *
+     * @param ifNoneMatch The If-None-Match header.
+     * @param etag        The ETag of the resource.
+     * @return True if the client already has the resource, false otherwise.
+     */
+    private boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate: ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.replaceFirst("^W/", "").equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a Range header asking for a single byte range.
+     *
+     * @param range The Range header.
+     * @param size  The size of the document.
+     * @return The first and last positions of the range, null if the header should be ignored (unknown unit or
+     * several ranges), or an empty array if the range is not satisfiable.
+     */
+    static long[] parseByteRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+
+        String[] bounds = range.substring("bytes=".length()).trim().split("-", -1);
+        if (bounds.length != 2) {
+            return null;
+        }
+
+        try {
+            long start;
+            long end;
+
+            if (bounds[0].isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffixLength = Long.parseLong(bounds[1]);
+                if (suffixLength <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffixLength);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(bounds[0]);
+                end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+            }
+
+            if (start >= size || start > end) {
+                return new long[0];
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,309 @@
+package fr.polytech.service;
+
+import fr.polytech.config.ResilienceConfig;
+import fr.polytech.model.AddressDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces the address lookups of concurrent requests into batched calls to the address microservice.
+ * <p>
+ * Addresses are not specific to the user reading them: any authenticated user may read any address, which is why the
+ * {@link AddressCache} is keyed by address id only. Lookups are therefore coalesced across users, and a batch is sent
+ * with the token of its earliest caller. If the address microservice rejects that token, the batch, or each single
+ * lookup when there is no batch endpoint, is sent again with the token of the next caller, so that an expired token
+ * does not fail the lookups of the other users.
+ * <p>
+ * A batch is sent when it reaches ADDRESS_BATCH_MAX_SIZE ids or when ADDRESS_BATCH_WINDOW_MS elapsed since its first id.
+ * It is sent with the latest deadline of its callers, each caller giving up on its own deadline.
+ */
+@Component
+public class AddressBatchResolver {
+
+    private final Logger logger = LoggerFactory.getLogger(AddressBatchResolver.class);
+    private final String ADDRESS_API_URI = Optional.ofNullable(System.getenv("ADDRESS_API_URI")).orElse("lb://address-api/api/v1/address");
+    private final String ADDRESS_API_BATCH_PATH = Optional.ofNullable(System.getenv("ADDRESS_API_BATCH_PATH")).orElse("/batch");
+    private final long ADDRESS_BATCH_WINDOW_MS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_BATCH_WINDOW_MS")).orElse("5"));
+    private final int ADDRESS_BATCH_MAX_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("ADDRESS_BATCH_MAX_SIZE")).orElse("50"));
+
+    // Switched off the first time the address microservice tells us it has no batch endpoint
+    private volatile boolean batchEndpointAvailable = Boolean.parseBoolean(Optional.ofNullable(System.getenv("ADDRESS_API_BATCH_ENABLED")).orElse("true"));
+
+    // Guards the batch that is still collecting ids
+    private final Object lock = new Object();
+    private PendingBatch pendingBatch;
+
+    @Autowired
+    private HedgedCaller hedgedCaller;
+
+    @Autowired
+    @Qualifier("addressLookupExecutor")
+    private ExecutorService addressLookupExecutor;
+
+    @Autowired
+    @Qualifier("addressBatchScheduler")
+    private ScheduledExecutorService addressBatchScheduler;
+
+    /**
+     * Register address ids to resolve with the next batch.
+     *
+     * @param addressIdList: the ids of the addresses to resolve.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @param deadlineNanos: the deadline of the caller, see {@link RequestDeadline}.
+     * @return a future for each distinct id, shared with the other callers waiting for the same id.
+     */
+    public Map<UUID, CompletableFuture<AddressDTO>> resolve(Collection<UUID> addressIdList, String token, long deadlineNanos) {
+        Map<UUID, CompletableFuture<AddressDTO>> futures = new LinkedHashMap<>();
+        List<PendingBatch> fullBatches = new ArrayList<>();
+
+        synchronized (lock) {
+            for (UUID addressId: addressIdList) {
+                PendingBatch batch = pendingBatch;
+
+                if (batch == null) {
+                    batch = new PendingBatch();
+                    pendingBatch = batch;
+
+                    PendingBatch scheduledBatch = batch;
+                    addressBatchScheduler.schedule(() -> flush(scheduledBatch), ADDRESS_BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+                }
+
+                batch.tokens.add(token);
+                batch.deadlineNanos = Math.max(batch.deadlineNanos, deadlineNanos);
+                futures.put(addressId, batch.futures.computeIfAbsent(addressId, id -> new CompletableFuture<>()));
+
+                if (batch.futures.size() >= ADDRESS_BATCH_MAX_SIZE) {
+                    pendingBatch = null;
+                    fullBatches.add(batch);
+                }
+            }
+        }
+
+        for (PendingBatch batch: fullBatches) {
+            addressLookupExecutor.execute(() -> send(batch));
+        }
+
+        return futures;
+    }
+
+    /**
+     * Send a batch whose window elapsed, unless it was already sent because it was full.
+     *
+     * @param batch: the batch to send.
+     */
+    private void flush(PendingBatch batch) {
+        boolean removed;
+
+        synchronized (lock) {
+            removed = pendingBatch == batch;
+
+            if (removed) {
+                pendingBatch = null;
+            }
+        }
+
+        if (removed) {
+            addressLookupExecutor.execute(() -> send(batch));
+        }
+    }
+
+    /**
+     * Resolve every address of a batch, with a single batched call when possible.
+     *
+     * @param batch: the batch to resolve.
+     */
+    private void send(PendingBatch batch) {
+        if (batchEndpointAvailable) {
+            try {
+                Map<UUID, AddressDTO> addresses = fetchAddressBatchWithAnyToken(batch);
+
+                batch.futures.forEach((addressId, future) -> {
+                    AddressDTO addressDTO = addresses.get(addressId);
+
+                    if (addressDTO == null) {
+                        future.completeExceptionally(new HttpClientErrorException(HttpStatus.NOT_FOUND, "Address " + addressId + " not found"));
+                    } else {
+                        future.complete(addressDTO);
+                    }
+                });
+                return;
+            } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+                logger.warn("Address microservice has no batch endpoint, falling back to single lookups");
+                batchEndpointAvailable = false;
+            } catch (RestClientException e) {
+                logger.error("Error while fetching a batch of addresses");
+                batch.futures.values().forEach(future -> future.completeExceptionally(e));
+                return;
+            }
+        }
+
+        // Fallback: one request per address, sent in parallel
+        batch.futures.forEach((addressId, future) -> CompletableFuture
+                .supplyAsync(() -> callWithAnyToken(batch, token -> fetchAddress(addressId, token, batch.deadlineNanos)), addressLookupExecutor)
+                .whenComplete((addressDTO, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(addressDTO);
+                    }
+                }));
+    }
+
+    /**
+     * Fetch the addresses of a batch with the token of its earliest caller, trying the tokens of the next callers if
+     * the address microservice rejects it.
+     *
+     * @param batch: the batch to fetch.
+     * @return the fetched addresses, by id.
+     * @throws RestClientException if the address microservice returns an error, or rejects every token.
+     */
+    private Map<UUID, AddressDTO> fetchAddressBatchWithAnyToken(PendingBatch batch) throws RestClientException {
+        return callWithAnyToken(batch, token -> fetchAddressBatch(batch.futures.keySet(), token, batch.deadlineNanos));
+    }
+
+    /**
+     * Call the address microservice for a batch with the token of its earliest caller, trying the tokens of the next
+     * callers if the address microservice rejects it. A rejected token is remembered for the batch, so that the single
+     * lookups of the fallback do not each try it again.
+     *
+     * @param batch: the batch the call is made for.
+     * @param call: the call, given the token to send.
+     * @return the result of the call.
+     * @throws RestClientException if the address microservice returns an error, or rejects every token.
+     */
+    private <T> T callWithAnyToken(PendingBatch batch, Function<String, T> call) throws RestClientException {
+        HttpClientErrorException rejection = null;
+
+        for (String token: batch.tokens) {
+            if (batch.rejectedTokens.contains(token)) {
+                continue;
+            }
+
+            try {
+                return call.apply(token);
+            } catch (HttpClientErrorException.Unauthorized | HttpClientErrorException.Forbidden e) {
+                batch.rejectedTokens.add(token);
+                rejection = e;
+                logger.warn("Address microservice rejected the token of a caller, retrying with the token of another caller");
+            }
+        }
+
+        if (rejection == null) {
+            // Every token was rejected by an earlier lookup of the batch
+            throw HttpClientErrorException.create(HttpStatus.UNAUTHORIZED, "Every token of the batch was rejected", null, null, null);
+        }
+        throw rejection;
+    }
+
+    /**
+     * Fetch several addresses with a single request to the batch endpoint of the address microservice.
+     *
+     * @param addressIdList: the ids of the addresses to fetch.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @param deadlineNanos: the deadline of the batch.
+     * @return the fetched addresses, by id.
+     * @throws RestClientException if the address microservice returns an error.
+     */
+    private Map<UUID, AddressDTO> fetchAddressBatch(Collection<UUID> addressIdList, String token, long deadlineNanos) throws RestClientException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+        HttpEntity<List<UUID>> requestEntity = new HttpEntity<>(new ArrayList<>(addressIdList), headers);
+
+        logger.info("trying to fetch a batch of " + addressIdList.size() + " addresses");
+
+        // The batch endpoint only reads addresses, so it can be hedged despite being a POST
+        ResponseEntity<AddressDTO[]> responseEntity = hedgedCaller.exchange(
+                ResilienceConfig.ADDRESS_API,
+                ADDRESS_API_URI + ADDRESS_API_BATCH_PATH,
+                HttpMethod.POST,
+                requestEntity,
+                AddressDTO[].class,
+                deadlineNanos
+        );
+
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            logger.error("Error while fetching a batch of addresses");
+            throw new HttpClientErrorException(responseEntity.getStatusCode());
+        }
+
+        Map<UUID, AddressDTO> addresses = new HashMap<>();
+
+        if (responseEntity.getBody() != null) {
+            for (AddressDTO addressDTO: responseEntity.getBody()) {
+                addresses.put(addressDTO.getId(), addressDTO);
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Fetch a single address from the address microservice.
+     *
+     * @param addressId: the id of the address to fetch.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @param deadlineNanos: the deadline of the batch.
+     * @return the address.
+     * @throws HttpClientErrorException if the address microservice returns an error.
+     */
+    private AddressDTO fetchAddress(UUID addressId, String token, long deadlineNanos) throws HttpClientErrorException {
+        // Fetching address infos from address microservice
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+        HttpEntity<UUID> requestEntity = new HttpEntity<>(null, headers);
+
+        logger.info("trying to fetch address with id " + addressId);
+
+        // Sending the request to address microservice
+        ResponseEntity<AddressDTO> responseEntity = hedgedCaller.exchange(
+                ResilienceConfig.ADDRESS_API,
+                ADDRESS_API_URI + "/" + addressId,
+                HttpMethod.GET,
+                requestEntity,
+                AddressDTO.class,
+                deadlineNanos
+        );
+
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            logger.info(responseEntity.getStatusCode().toString());
+            logger.error("Error while fetching address infos while getting a company");
+            // If the status code is not 200, then throw the exception to the client
+            throw new HttpClientErrorException(responseEntity.getStatusCode());
+        }
+
+        return responseEntity.getBody();
+    }
+
+    /**
+     * Ids collected from every caller, with the futures of the waiting callers.
+     * The fields are guarded by the lock until the batch is sent.
+     */
+    private static class PendingBatch {
+
+        // Tokens of the callers, the earliest one first
+        private final Set<String> tokens = new LinkedHashSet<>();
+
+        // Tokens the address microservice rejected, shared by the concurrent single lookups of the fallback
+        private final Set<String> rejectedTokens = ConcurrentHashMap.newKeySet();
+        private final Map<UUID, CompletableFuture<AddressDTO>> futures = new LinkedHashMap<>();
+
+        // Latest deadline of the callers
+        private long deadlineNanos = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,169 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import fr.polytech.model.AddressDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded cache of the addresses fetched from the address microservice.
+ * <p>
+ * Entries older than ADDRESS_CACHE_REFRESH_AFTER_SECONDS are still served but should be refreshed in the background.
+ * Addresses the address microservice does not know are cached as negative entries for ADDRESS_CACHE_NEGATIVE_TTL_SECONDS.
+ * <p>
+ * The last address fetched for each id is also kept for ADDRESS_LAST_KNOWN_TTL_SECONDS, to be served when the address
+ * microservice is unavailable.
+ */
+@Component
+public class AddressCache {
+
+    private final long ADDRESS_CACHE_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_CACHE_MAX_SIZE")).orElse("10000"));
+    private final long ADDRESS_CACHE_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_CACHE_TTL_SECONDS")).orElse("3600"));
+    private final long ADDRESS_CACHE_REFRESH_AFTER_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_CACHE_REFRESH_AFTER_SECONDS")).orElse("600"));
+    private final long ADDRESS_CACHE_NEGATIVE_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_CACHE_NEGATIVE_TTL_SECONDS")).orElse("60"));
+    private final long ADDRESS_LAST_KNOWN_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_LAST_KNOWN_TTL_SECONDS")).orElse("604800"));
+
+    // Caffeine evicts with W-TinyLFU once the maximum size is reached
+    private final Cache<UUID, CachedAddress> cache = Caffeine.newBuilder()
+            .maximumSize(ADDRESS_CACHE_MAX_SIZE)
+            .expireAfter(new CachedAddressExpiry())
+            .recordStats()
+            .build();
+
+    private final Cache<UUID, AddressDTO> lastKnownAddresses = Caffeine.newBuilder()
+            .maximumSize(ADDRESS_CACHE_MAX_SIZE)
+            .expireAfterWrite(Duration.ofSeconds(ADDRESS_LAST_KNOWN_TTL_SECONDS))
+            .recordStats()
+            .build();
+
+    // Ids whose background refresh is in progress, so that a stale entry is only refreshed once
+    private final Set<UUID> refreshing = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Expose the hit, miss and eviction counters of the cache.
+     */
+    @PostConstruct
+    public void bindMetrics() {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "addresses");
+        CaffeineCacheMetrics.monitor(meterRegistry, lastKnownAddresses, "last-known-addresses");
+    }
+
+    /**
+     * Get a cached address.
+     *
+     * @param addressId: the id of the address.
+     * @return the cached entry, or null if the address is not cached.
+     */
+    public CachedAddress get(UUID addressId) {
+        return cache.getIfPresent(addressId);
+    }
+
+    /**
+     * Cache an address returned by the address microservice.
+     *
+     * @param addressId: the id of the address.
+     * @param addressDTO: the address.
+     */
+    public void put(UUID addressId, AddressDTO addressDTO) {
+        cache.put(addressId, new CachedAddress(addressDTO, System.nanoTime()));
+        lastKnownAddresses.put(addressId, addressDTO);
+    }
+
+    /**
+     * Remember that the address microservice does not know an address.
+     *
+     * @param addressId: the id of the address.
+     */
+    public void putNotFound(UUID addressId) {
+        cache.put(addressId, new CachedAddress(null, System.nanoTime()));
+        lastKnownAddresses.invalidate(addressId);
+    }
+
+    /**
+     * Get the last address fetched for an id, even if it expired from the cache.
+     *
+     * @param addressId: the id of the address.
+     * @return the address, or null if it was never fetched or is not found.
+     */
+    public AddressDTO getLastKnown(UUID addressId) {
+        return lastKnownAddresses.getIfPresent(addressId);
+    }
+
+    /**
+     * Claim the background refresh of a stale entry.
+     *
+     * @param addressId: the id of the address.
+     * @return true if the caller should refresh the entry, false if a refresh is already in progress.
+     */
+    public boolean startRefresh(UUID addressId) {
+        return refreshing.add(addressId);
+    }
+
+    /**
+     * Release the background refresh of an entry.
+     *
+     * @param addressId: the id of the address.
+     */
+    public void endRefresh(UUID addressId) {
+        refreshing.remove(addressId);
+    }
+
+    /**
+     * Get the age after which an entry should be refreshed in the background.
+     *
+     * @return the age in nanoseconds.
+     */
+    public long getRefreshAfterNanos() {
+        return TimeUnit.SECONDS.toNanos(ADDRESS_CACHE_REFRESH_AFTER_SECONDS);
+    }
+
+    /**
+     * An address and the time it was fetched at. A null address means the address was not found.
+     */
+    public record CachedAddress(AddressDTO address, long loadedAtNanos) {
+
+        public boolean isNotFound() {
+            return address == null;
+        }
+
+        public boolean isStale(long refreshAfterNanos) {
+            return System.nanoTime() - loadedAtNanos > refreshAfterNanos;
+        }
+    }
+
+    /**
+     * Expire found addresses after the TTL and not found addresses after the negative TTL.
+     */
+    private class CachedAddressExpiry implements Expiry<UUID, CachedAddress> {
+
+        @Override
+        public long expireAfterCreate(UUID key, CachedAddress value, long currentTime) {
+            return TimeUnit.SECONDS.toNanos(value.isNotFound() ? ADDRESS_CACHE_NEGATIVE_TTL_SECONDS : ADDRESS_CACHE_TTL_SECONDS);
+        }
+
+        @Override
+        public long expireAfterUpdate(UUID key, CachedAddress value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(UUID key, CachedAddress value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
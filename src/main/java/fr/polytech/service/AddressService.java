@@ -0,0 +1,259 @@
+package fr.polytech.service;
+
+import fr.polytech.model.AddressDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Service to fetch addresses from the address microservice.
+ * <p>
+ * Lookups are served from the {@link AddressCache} when possible, and otherwise go through the
+ * {@link AddressBatchResolver}, which coalesces them with the lookups of concurrent requests.
+ */
+@Service
+public class AddressService {
+
+    private final Logger logger = LoggerFactory.getLogger(AddressService.class);
+    private final long ADDRESS_LOOKUP_CALL_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_LOOKUP_CALL_TIMEOUT_MS")).orElse("2000"));
+    private final long ADDRESS_LOOKUP_TOTAL_TIMEOUT_MS = Long.parseLong(Optional.ofNullable(System.getenv("ADDRESS_LOOKUP_TOTAL_TIMEOUT_MS")).orElse("5000"));
+
+    @Autowired
+    private AddressBatchResolver addressBatchResolver;
+
+    @Autowired
+    private AddressCache addressCache;
+
+    /**
+     * Fetch a list of addresses concurrently, keeping the order of the given ids.
+     *
+     * @param addressIdList: the ids of the addresses to fetch.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @return the addresses, in the same order as the ids.
+     * @throws HttpClientErrorException if the address microservice returns an error.
+     * @throws HttpServerErrorException if the lookups did not complete before the deadline.
+     */
+    public List<AddressDTO> getAddressList(List<UUID> addressIdList, String token) throws HttpClientErrorException, HttpServerErrorException {
+        List<AddressDTO> addressDTOList = new ArrayList<>();
+
+        if (addressIdList == null || addressIdList.isEmpty()) {
+            return addressDTOList;
+        }
+
+        long deadlineNanos = RequestDeadline.current();
+
+        // Serve what we can from the cache, and only go to the network for the missing addresses
+        Map<UUID, AddressDTO> cachedAddresses = new HashMap<>();
+        List<UUID> missingIdList = new ArrayList<>();
+        List<UUID> staleIdList = new ArrayList<>();
+
+        for (UUID addressId: addressIdList) {
+            AddressCache.CachedAddress cachedAddress = addressCache.get(addressId);
+
+            if (cachedAddress == null) {
+                missingIdList.add(addressId);
+            } else if (cachedAddress.isNotFound()) {
+                logger.error("Error while fetching address infos: address " + addressId + " not found (cached)");
+                throw new HttpClientErrorException(HttpStatus.NOT_FOUND, "Address " + addressId + " not found");
+            } else {
+                cachedAddresses.put(addressId, cachedAddress.address());
+
+                if (cachedAddress.isStale(addressCache.getRefreshAfterNanos()) && addressCache.startRefresh(addressId)) {
+                    staleIdList.add(addressId);
+                }
+            }
+        }
+
+        // Stale entries are served as is and refreshed in the background
+        if (!staleIdList.isEmpty()) {
+            resolveAndCache(staleIdList, token, deadlineNanos).forEach((addressId, future) ->
+                    future.whenComplete((addressDTO, throwable) -> addressCache.endRefresh(addressId)));
+        }
+
+        if (missingIdList.isEmpty()) {
+            for (UUID addressId: addressIdList) {
+                addressDTOList.add(cachedAddresses.get(addressId));
+            }
+            return addressDTOList;
+        }
+
+        // The resolver futures are shared with other callers, so we only ever time out or cancel our own copies
+        Map<UUID, CompletableFuture<AddressDTO>> resolvedAddresses = resolveAndCache(missingIdList, token, deadlineNanos);
+
+        // Completed exceptionally by the first failing lookup so that we do not wait for the others
+        CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+        List<CompletableFuture<AddressDTO>> futures = new ArrayList<>(addressIdList.size());
+
+        for (UUID addressId: addressIdList) {
+            if (cachedAddresses.containsKey(addressId)) {
+                futures.add(CompletableFuture.completedFuture(cachedAddresses.get(addressId)));
+                continue;
+            }
+
+            CompletableFuture<AddressDTO> future = resolvedAddresses.get(addressId)
+                    .copy()
+                    .orTimeout(ADDRESS_LOOKUP_CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            future.whenComplete((address, throwable) -> {
+                if (throwable != null) {
+                    firstFailure.completeExceptionally(throwable);
+                }
+            });
+
+            futures.add(future);
+        }
+
+        awaitAll(futures, firstFailure, Math.min(ADDRESS_LOOKUP_TOTAL_TIMEOUT_MS, RequestDeadline.remainingMillis(deadlineNanos)));
+
+        for (CompletableFuture<AddressDTO> future: futures) {
+            addressDTOList.add(future.join());
+        }
+
+        return addressDTOList;
+    }
+
+    /**
+     * Fetch a list of addresses like {@link #getAddressList(List, String)}, but fall back to the last known addresses
+     * when the address microservice is unavailable, instead of failing.
+     *
+     * @param addressIdList: the ids of the addresses to fetch.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @return the addresses, degraded if some of them are the last known ones or are missing.
+     * @throws HttpClientErrorException if the address microservice returns a client error.
+     */
+    public AddressListResult getAddressListOrLastKnown(List<UUID> addressIdList, String token) throws HttpClientErrorException {
+        try {
+            return new AddressListResult(getAddressList(addressIdList, token), false);
+        } catch (HttpClientErrorException e) {
+            throw e;
+        } catch (RestClientException e) {
+            logger.warn("Address microservice is unavailable, serving the last known addresses: " + e.getMessage());
+        }
+
+        List<AddressDTO> addressDTOList = new ArrayList<>();
+        for (UUID addressId: addressIdList) {
+            AddressDTO addressDTO = addressCache.getLastKnown(addressId);
+
+            if (addressDTO != null) {
+                addressDTOList.add(addressDTO);
+            }
+        }
+
+        return new AddressListResult(addressDTOList, true);
+    }
+
+    /**
+     * Resolve addresses through the batch resolver and store the results in the cache.
+     *
+     * @param addressIdList: the ids of the addresses to resolve.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @param deadlineNanos: the deadline of the request, see {@link RequestDeadline}.
+     * @return a future for each distinct id.
+     */
+    private Map<UUID, CompletableFuture<AddressDTO>> resolveAndCache(List<UUID> addressIdList, String token, long deadlineNanos) {
+        Map<UUID, CompletableFuture<AddressDTO>> resolvedAddresses = addressBatchResolver.resolve(addressIdList, token, deadlineNanos);
+
+        resolvedAddresses.forEach((addressId, future) -> future.whenComplete((addressDTO, throwable) -> {
+            if (throwable == null) {
+                addressCache.put(addressId, addressDTO);
+            } else if (unwrapCompletion(throwable) instanceof HttpClientErrorException exception
+                    && exception.getStatusCode().value() == HttpStatus.NOT_FOUND.value()) {
+                addressCache.putNotFound(addressId);
+            }
+        }));
+
+        return resolvedAddresses;
+    }
+
+    /**
+     * Wait for all the lookups to complete, failing as soon as one of them fails or the overall deadline is reached.
+     *
+     * @param futures: the pending lookups.
+     * @param firstFailure: a future completed exceptionally by the first failing lookup.
+     * @param timeoutMs: the time left before the overall deadline.
+     * @throws HttpClientErrorException if one of the lookups failed with a client error.
+     * @throws HttpServerErrorException if the lookups did not complete before the deadline.
+     */
+    private void awaitAll(List<? extends CompletableFuture<?>> futures, CompletableFuture<Void> firstFailure, long timeoutMs) {
+        CompletableFuture<Void> allDone = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+
+        try {
+            CompletableFuture.anyOf(allDone, firstFailure).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancelAll(futures);
+            logger.error("Error while fetching address infos: deadline of " + timeoutMs + "ms exceeded");
+            throw new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT, "Address lookup timed out");
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(futures);
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Address lookup interrupted");
+        }
+    }
+
+    /**
+     * Cancel every lookup that is still pending.
+     *
+     * @param futures: the lookups to cancel.
+     */
+    private void cancelAll(List<? extends CompletableFuture<?>> futures) {
+        for (CompletableFuture<?> future: futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Convert the cause of a failed lookup into the exception thrown to the caller.
+     *
+     * @param cause: the cause of the failure.
+     * @return the exception to throw.
+     */
+    private RuntimeException unwrap(Throwable cause) {
+        cause = unwrapCompletion(cause);
+
+        if (cause instanceof TimeoutException) {
+            logger.error("Error while fetching address infos: per-call deadline of " + ADDRESS_LOOKUP_CALL_TIMEOUT_MS + "ms exceeded");
+            return new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT, "Address lookup timed out");
+        }
+
+        if (cause instanceof RestClientException restClientException) {
+            return restClientException;
+        }
+
+        return new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR, "Address lookup failed: " + cause.getMessage());
+    }
+
+    /**
+     * Get the actual cause of a failure reported by a completion stage.
+     *
+     * @param throwable: the failure.
+     * @return the failure, without its CompletionException wrappers.
+     */
+    private Throwable unwrapCompletion(Throwable throwable) {
+        while (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    /**
+     * Addresses of a lookup, degraded if they are not all up to date.
+     */
+    public record AddressListResult(List<AddressDTO> addresses, boolean degraded) {
+    }
+}
@@ -0,0 +1,130 @@
+package fr.polytech.service;
+
+import fr.polytech.model.BucketCleanupTask;
+import fr.polytech.repository.BucketCleanupTaskRepository;
+import io.minio.messages.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Service to empty and remove the buckets of deleted companies in the background.
+ * <p>
+ * Each bucket to remove is a task stored in the database, so the cleanup survives restarts. An instance claims a task
+ * by pushing its due date BUCKET_CLEANUP_LEASE_SECONDS forward, then removes the objects one page at a time, renewing
+ * the claim after every page. A failed or interrupted cleanup is resumed from the objects left, with an exponential
+ * backoff between attempts.
+ */
+@Service
+public class BucketCleanupService {
+
+    private final Logger logger = LoggerFactory.getLogger(BucketCleanupService.class);
+
+    private final int BUCKET_CLEANUP_PAGE_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("BUCKET_CLEANUP_PAGE_SIZE")).orElse("1000"));
+    private final long BUCKET_CLEANUP_LEASE_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("BUCKET_CLEANUP_LEASE_SECONDS")).orElse("600"));
+    private final long BUCKET_CLEANUP_RETRY_BASE_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("BUCKET_CLEANUP_RETRY_BASE_SECONDS")).orElse("30"));
+    private final long BUCKET_CLEANUP_RETRY_MAX_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("BUCKET_CLEANUP_RETRY_MAX_SECONDS")).orElse("3600"));
+
+    @Autowired
+    private BucketCleanupTaskRepository bucketCleanupTaskRepository;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private DocumentBlobService documentBlobService;
+
+    /**
+     * Queue the removal of a bucket and of all its objects.
+     *
+     * @param bucketName: the name of the bucket.
+     */
+    public void scheduleCleanup(String bucketName) {
+        BucketCleanupTask task = new BucketCleanupTask();
+        task.setBucketName(bucketName);
+        task.setCreatedAt(Instant.now());
+        task.setNextAttemptAt(Instant.now());
+
+        bucketCleanupTaskRepository.save(task);
+        logger.info("Scheduled the cleanup of bucket " + bucketName);
+    }
+
+    /**
+     * Run the cleanups that are due and not claimed by another instance.
+     */
+    @Scheduled(fixedDelayString = "${BUCKET_CLEANUP_INTERVAL_MS:10000}")
+    public void runDueCleanups() {
+        for (BucketCleanupTask task: bucketCleanupTaskRepository.findTop20ByNextAttemptAtLessThanEqualOrderByNextAttemptAt(Instant.now())) {
+            Instant now = Instant.now();
+
+            if (bucketCleanupTaskRepository.claim(task.getId(), now, now.plusSeconds(BUCKET_CLEANUP_LEASE_SECONDS)) == 0) {
+                continue;
+            }
+
+            runCleanup(task);
+        }
+    }
+
+    /**
+     * Empty a bucket page by page, then remove it.
+     * The contents referenced by the removed documents are released once the documents are gone: a crash in between
+     * leaks a reference rather than releasing it twice.
+     *
+     * @param task: the claimed task.
+     */
+    private void runCleanup(BucketCleanupTask task) {
+        String bucketName = task.getBucketName();
+        int removed = 0;
+
+        try {
+            List<Item> items;
+            while (!(items = minioService.listObjects(bucketName, "", BUCKET_CLEANUP_PAGE_SIZE, true)).isEmpty()) {
+                List<String> objectNames = new ArrayList<>(items.size());
+                List<String> contentHashes = new ArrayList<>();
+
+                for (Item item: items) {
+                    objectNames.add(item.objectName());
+
+                    String contentHash = DocumentBlobService.getContentHash(item.userMetadata());
+                    if (contentHash != null) {
+                        contentHashes.add(contentHash);
+                    }
+                }
+
+                minioService.removeObjects(bucketName, objectNames);
+
+                for (String contentHash: contentHashes) {
+                    documentBlobService.release(contentHash);
+                }
+
+                removed += objectNames.size();
+
+                task.setNextAttemptAt(Instant.now().plusSeconds(BUCKET_CLEANUP_LEASE_SECONDS));
+                task = bucketCleanupTaskRepository.save(task);
+            }
+
+            minioService.removeBucket(bucketName);
+            bucketCleanupTaskRepository.delete(task);
+
+            logger.info("Removed bucket " + bucketName + " and " + removed + " objects");
+        } catch (Exception e) {
+            int attempts = task.getAttempts() + 1;
+            long backoffSeconds = Math.min(BUCKET_CLEANUP_RETRY_MAX_SECONDS, BUCKET_CLEANUP_RETRY_BASE_SECONDS << Math.min(attempts - 1, 20));
+
+            logger.error("Error while cleaning up bucket " + bucketName + " (attempt " + attempts + "), retrying in " + backoffSeconds + "s: " + e.getMessage());
+
+            task.setAttempts(attempts);
+            task.setLastError(e.getMessage() == null ? null : e.getMessage().substring(0, Math.min(e.getMessage().length(), 1000)));
+            task.setNextAttemptAt(Instant.now().plus(Duration.ofSeconds(backoffSeconds)));
+            bucketCleanupTaskRepository.save(task);
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package fr.polytech.service;
+
+import fr.polytech.model.DocumentUploadResultDTO;
+import fr.polytech.repository.DocumentBlobRepository;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
+import io.minio.messages.Item;
+import jakarta.ws.rs.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Service to manage the documents of a company, stored in its "documents-{id}" bucket.
+ * <p>
+ * A document uploaded through this service is an empty object whose metadata holds the SHA-256 hash of its content,
+ * the content itself being stored once for all companies by {@link DocumentBlobService}. Documents uploaded directly
+ * to Minio hold their content themselves, both kinds are resolved transparently.
+ * <p>
+ * Every write of a document goes through {@link #replaceDocument}, which releases the content the replaced document
+ * referenced, so that overwriting a document never leaks its content. Writes and deletions of a document hold a lock on
+ * its bucket and name from the read of its previous content hash until that content is released, so that two
+ * concurrent writes never both release the same reference.
+ */
+@Service
+public class CompanyDocumentService {
+
+    private final Logger logger = LoggerFactory.getLogger(CompanyDocumentService.class);
+    private final String GATEWAY_BASE_URI = Optional.ofNullable(System.getenv("GATEWAY_BASE_URI")).orElse("http://localhost:8090");
+
+    // Presigned uploads are staged in the upload sessions bucket, whose expired objects are removed by UploadSessionService
+    private final String UPLOAD_STAGING_BUCKET = Optional.ofNullable(System.getenv("UPLOAD_SESSION_BUCKET")).orElse("upload-sessions");
+    private static final String UPLOAD_STAGING_PREFIX = "presigned/";
+
+    // Number of documents whose download is started ahead of the one being written to an archive
+    private final int ARCHIVE_READ_AHEAD = Integer.parseInt(Optional.ofNullable(System.getenv("ARCHIVE_READ_AHEAD")).orElse("4"));
+
+    private static final int ARCHIVE_BUFFER_SIZE = 8 * 1024;
+
+    @Autowired
+    private CompanyService companyService;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private DocumentBlobService documentBlobService;
+
+    @Autowired
+    private DocumentBlobRepository documentBlobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    @Qualifier("storageExecutor")
+    private ExecutorService storageExecutor;
+
+    /**
+     * Upload several documents concurrently, then add all the uploaded ones to the company with a single update.
+     *
+     * @param companyId: the id of the company.
+     * @param files: the documents to upload.
+     * @return the outcome of each upload, in the order of the files.
+     * @throws NotFoundException if the company was not found.
+     */
+    public List<DocumentUploadResultDTO> uploadDocuments(UUID companyId, List<MultipartFile> files) throws NotFoundException {
+        logger.info("Uploading " + files.size() + " documents to company with id " + companyId);
+        companyService.getCompanyById(companyId);
+
+        List<CompletableFuture<DocumentUploadResultDTO>> futures = new ArrayList<>(files.size());
+        for (MultipartFile file: files) {
+            futures.add(CompletableFuture.supplyAsync(() -> uploadDocument(companyId, file), storageExecutor));
+        }
+
+        List<DocumentUploadResultDTO> results = new ArrayList<>(files.size());
+        List<String> documentUrlList = new ArrayList<>();
+
+        for (CompletableFuture<DocumentUploadResultDTO> future: futures) {
+            DocumentUploadResultDTO result = future.join();
+            results.add(result);
+
+            if (result.isSuccess()) {
+                documentUrlList.add(result.getUrl());
+            }
+        }
+
+        if (!documentUrlList.isEmpty()) {
+            companyService.addDocumentUrls(companyId, documentUrlList);
+        }
+
+        logger.info("Uploaded " + documentUrlList.size() + " of " + files.size() + " documents to company with id " + companyId);
+        return results;
+    }
+
+    /**
+     * Store an uploaded document of a company, replacing any document with the same name.
+     * The content is not uploaded again if identical bytes are already stored.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @param file: the document.
+     * @return the URL of the document.
+     */
+    public String storeDocument(UUID companyId, String objectName, MultipartFile file) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String contentHash = documentBlobService.store(file);
+        return linkDocument(companyId, objectName, contentHash, file.getContentType());
+    }
+
+    /**
+     * Store a streamed document of a company, replacing any document with the same name.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @param inputStream: the content of the document, it is not closed.
+     * @param size: the size of the document.
+     * @param contentType: the content type of the document.
+     * @return the URL of the document.
+     */
+    public String storeDocument(UUID companyId, String objectName, InputStream inputStream, long size, String contentType) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String contentHash = documentBlobService.store(inputStream, size, contentType);
+        return linkDocument(companyId, objectName, contentHash, contentType);
+    }
+
+    /**
+     * Get the object a client uploads a document to with a presigned form, before confirming it.
+     * Uploads are staged so that they cannot overwrite a document before its content is released.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return the bucket and name of the staged object.
+     */
+    public StoredContent getUploadStagingObject(UUID companyId, String objectName) {
+        return new StoredContent(UPLOAD_STAGING_BUCKET, UPLOAD_STAGING_PREFIX + companyId + "/" + objectName);
+    }
+
+    /**
+     * Move a document uploaded with a presigned form from its staging object to the documents of the company,
+     * replacing any document with the same name.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return the URL of the document.
+     * @throws IllegalArgumentException if the uploaded object claims to reference a stored content.
+     * @throws ErrorResponseException if the document was not uploaded.
+     */
+    public String confirmUploadedDocument(UUID companyId, String objectName) throws IllegalArgumentException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        StoredContent stagingObject = getUploadStagingObject(companyId, objectName);
+        StatObjectResponse statObjectResponse = minioService.statObject(stagingObject.bucketName(), stagingObject.objectName());
+
+        // Releasing a reference the client made up would remove the content of other documents
+        if (DocumentBlobService.getContentHash(statObjectResponse.userMetadata()) != null) {
+            throw new IllegalArgumentException("Uploaded document must not reference a stored content");
+        }
+
+        String bucketName = getBucketName(companyId);
+        replaceDocument(bucketName, objectName, () -> minioService.copyObject(bucketName, objectName, stagingObject.bucketName(), stagingObject.objectName()));
+        minioService.removeObjects(stagingObject.bucketName(), List.of(stagingObject.objectName()));
+
+        return GATEWAY_BASE_URI + "/" + bucketName + "/" + objectName;
+    }
+
+    /**
+     * Assemble a document from other objects, server side, replacing any document with the same name.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @param sourceBucketName: the bucket of the parts.
+     * @param sourceObjectNames: the names of the parts, in order.
+     * @param contentType: the content type of the document.
+     * @return the URL of the document.
+     */
+    public String composeDocument(UUID companyId, String objectName, String sourceBucketName, List<String> sourceObjectNames, String contentType) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+        replaceDocument(bucketName, objectName, () -> minioService.composeObject(bucketName, objectName, sourceBucketName, sourceObjectNames, contentType));
+
+        return GATEWAY_BASE_URI + "/" + bucketName + "/" + objectName;
+    }
+
+    /**
+     * Get the private URL of a document, resolving documents stored by hash.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return the private URL of the document.
+     */
+    public String getDocumentUrl(UUID companyId, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+        String contentHash = getContentHash(bucketName, objectName);
+
+        if (contentHash == null) {
+            return minioService.getPrivateDocumentUrl(bucketName, objectName);
+        }
+        return documentBlobService.getPrivateUrl(contentHash, objectName);
+    }
+
+    /**
+     * Write every document of a company to a ZIP archive, in the order Minio lists them.
+     * <p>
+     * The downloads of the next ARCHIVE_READ_AHEAD documents are started on the storage executor while a document is
+     * written, so that their Minio round trips overlap. Only the open streams are held, never whole documents, so the
+     * memory used does not depend on the size or the number of documents. A document that cannot be opened is skipped.
+     *
+     * @param companyId: the id of the company.
+     * @param outputStream: the stream to write the archive to, it is not closed.
+     * @return the number of documents written.
+     * @throws IOException if the archive could not be written.
+     */
+    public int writeArchive(UUID companyId, OutputStream outputStream) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+        List<String> objectNames = new ArrayList<>();
+
+        for (Item item: minioService.listObjects(bucketName, "")) {
+            if (!item.isDir()) {
+                objectNames.add(item.objectName());
+            }
+        }
+
+        logger.info("Archiving " + objectNames.size() + " documents of company with id " + companyId);
+
+        Deque<CompletableFuture<InputStream>> pendingDownloads = new ArrayDeque<>();
+        int nextDownload = 0;
+        int written = 0;
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.setLevel(Deflater.BEST_SPEED);
+        byte[] buffer = new byte[ARCHIVE_BUFFER_SIZE];
+
+        try {
+            for (String objectName: objectNames) {
+                while (nextDownload < objectNames.size() && pendingDownloads.size() <= ARCHIVE_READ_AHEAD) {
+                    String nextObjectName = objectNames.get(nextDownload++);
+                    pendingDownloads.add(CompletableFuture.supplyAsync(() -> openDocument(companyId, nextObjectName), storageExecutor));
+                }
+
+                InputStream inputStream = pendingDownloads.poll().join();
+                if (inputStream == null) {
+                    continue;
+                }
+
+                try (inputStream) {
+                    zipOutputStream.putNextEntry(new ZipEntry(objectName));
+
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        zipOutputStream.write(buffer, 0, read);
+                    }
+
+                    zipOutputStream.closeEntry();
+                }
+                written++;
+            }
+
+            zipOutputStream.finish();
+        } finally {
+            // Release the downloads started ahead of a failure
+            for (CompletableFuture<InputStream> pendingDownload: pendingDownloads) {
+                pendingDownload.thenAccept(this::closeQuietly);
+            }
+        }
+
+        logger.info("Archived " + written + " of " + objectNames.size() + " documents of company with id " + companyId);
+        return written;
+    }
+
+    /**
+     * Get the object holding the content of a document, resolving documents stored by hash.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return the bucket and name of the object holding the content.
+     */
+    public StoredContent resolveDocument(UUID companyId, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+        String contentHash = getContentHash(bucketName, objectName);
+
+        if (contentHash == null) {
+            return new StoredContent(bucketName, objectName);
+        }
+        return new StoredContent(documentBlobService.getBucketName(), contentHash);
+    }
+
+    /**
+     * Delete a document, and its content if no other document references it.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     */
+    public void deleteDocument(UUID companyId, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+
+        withDocumentLock(bucketName, objectName, () -> {
+            String contentHash = getContentHash(bucketName, objectName);
+
+            minioService.deleteFileFromPrivateBucket(bucketName, objectName);
+
+            if (contentHash != null) {
+                documentBlobService.release(contentHash);
+            }
+        });
+    }
+
+    /**
+     * Check if a document exists in the documents of a company.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return true if the document exists in the bucket of the company, false otherwise.
+     */
+    public boolean documentExistsAndBelongsToCompany(UUID companyId, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            minioService.statObject(getBucketName(companyId), objectName);
+            return true;
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the hash of the content a document references.
+     *
+     * @param bucketName: the bucket of the company's documents.
+     * @param objectName: the name of the document.
+     * @return the hash, or null if the document does not exist or holds its content itself.
+     */
+    public String getContentHash(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        StatObjectResponse statObjectResponse;
+        try {
+            statObjectResponse = minioService.statObject(bucketName, objectName);
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return null;
+            }
+            throw e;
+        }
+
+        return DocumentBlobService.getContentHash(statObjectResponse.userMetadata());
+    }
+
+    /**
+     * Get the bucket of the documents of a company.
+     *
+     * @param companyId: the id of the company.
+     * @return the name of the bucket.
+     */
+    public String getBucketName(UUID companyId) {
+        return "documents-" + companyId;
+    }
+
+    /**
+     * Point a document at a stored content, replacing any document with the same name.
+     * The reference taken on the content is released if the document could not be written.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @param contentHash: the hash of the content, already referenced for this document.
+     * @param contentType: the content type of the document.
+     * @return the URL of the document.
+     */
+    private String linkDocument(UUID companyId, String objectName, String contentHash, String contentType) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = getBucketName(companyId);
+
+        try {
+            replaceDocument(bucketName, objectName, () -> minioService.uploadMetadataObject(bucketName, objectName, Map.of(DocumentBlobService.CONTENT_HASH_METADATA, contentHash), contentType));
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            documentBlobService.release(contentHash);
+            throw e;
+        }
+
+        return GATEWAY_BASE_URI + "/" + bucketName + "/" + objectName;
+    }
+
+    /**
+     * Write a document, then release the content the document it replaced referenced, once the write succeeded.
+     *
+     * @param bucketName: the bucket of the company's documents.
+     * @param objectName: the name of the document.
+     * @param write: the write of the document.
+     */
+    private void replaceDocument(String bucketName, String objectName, DocumentWrite write) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        withDocumentLock(bucketName, objectName, () -> {
+            String previousContentHash = getContentHash(bucketName, objectName);
+
+            write.run();
+
+            if (previousContentHash != null) {
+                documentBlobService.release(previousContentHash);
+            }
+        });
+    }
+
+    /**
+     * Run an action on a document in a transaction holding the lock on the document.
+     * The content released by the action is removed once that transaction commits, after the lock is released.
+     *
+     * @param bucketName: the bucket of the company's documents.
+     * @param objectName: the name of the document.
+     * @param action: the action, reading the content hash of the document and releasing it.
+     */
+    private void withDocumentLock(String bucketName, String objectName, DocumentWrite action) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        TransactionStatus status = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+
+        try {
+            documentBlobRepository.lockDocument(bucketName, objectName);
+            action.run();
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+            transactionManager.rollback(status);
+            throw e;
+        }
+
+        transactionManager.commit(status);
+    }
+
+    /**
+     * Open the content of a document, reporting a failure instead of throwing it.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @return the content of the document, or null if it could not be opened.
+     */
+    private InputStream openDocument(UUID companyId, String objectName) {
+        try {
+            StoredContent storedContent = resolveDocument(companyId, objectName);
+            return minioService.getObject(storedContent.bucketName(), storedContent.objectName(), 0, null);
+        } catch (Exception e) {
+            logger.error("Error while opening document " + objectName + ", it is left out of the archive: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            logger.warn("Error while closing a document stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Upload one document, reporting a failure instead of throwing it.
+     *
+     * @param companyId: the id of the company.
+     * @param file: the document to upload.
+     * @return the outcome of the upload.
+     */
+    private DocumentUploadResultDTO uploadDocument(UUID companyId, MultipartFile file) {
+        String fileName = file.getOriginalFilename();
+
+        if (fileName == null || fileName.isBlank()) {
+            return new DocumentUploadResultDTO(fileName, null, false, "Missing file name");
+        }
+
+        try {
+            return new DocumentUploadResultDTO(fileName, storeDocument(companyId, fileName, file), true, null);
+        } catch (Exception e) {
+            logger.error("Error while uploading document " + fileName + ": " + e.getMessage());
+            return new DocumentUploadResultDTO(fileName, null, false, e.getMessage());
+        }
+    }
+
+    /**
+     * The bucket and name of the object holding the content of a document.
+     */
+    public record StoredContent(String bucketName, String objectName) {
+    }
+
+    /**
+     * A write to Minio replacing or deleting a document.
+     */
+    @FunctionalInterface
+    private interface DocumentWrite {
+        void run() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException;
+    }
+}
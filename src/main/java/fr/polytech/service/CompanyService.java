@@ -3,36 +3,72 @@ package fr.polytech.service;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.polytech.config.ResilienceConfig;
 import fr.polytech.model.*;
 import fr.polytech.repository.CompanyRepository;
+import io.micrometer.observation.annotation.Observed;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.ws.rs.NotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpServerErrorException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Service
+@Observed(name = "company.service")
 public class CompanyService {
 
     // Initializing logger
     private final Logger logger = LoggerFactory.getLogger(CompanyService.class);
     private final String USER_API_URI = Optional.ofNullable(System.getenv("USER_API_URI")).orElse("lb://user-api/api/v1/user");
-    private final String ADDRESS_API_URI = Optional.ofNullable(System.getenv("ADDRESS_API_URI")).orElse("lb://address-api/api/v1/address");
+
+    private final int COMPANY_PAGE_DEFAULT_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("COMPANY_PAGE_DEFAULT_SIZE")).orElse("20"));
+    private final int COMPANY_PAGE_MAX_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("COMPANY_PAGE_MAX_SIZE")).orElse("100"));
+    // Not larger than the batch size of the company collections, so that a page loads each collection at once
+    private final int COMPANY_EXPORT_PAGE_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("COMPANY_EXPORT_PAGE_SIZE")).orElse("100"));
+    private static final UUID MIN_UUID = new UUID(0L, 0L);
 
     @Autowired
-    private RestTemplate restTemplate;
+    private HedgedCaller hedgedCaller;
 
     @Autowired
     private CompanyRepository companyRepository;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private AddressService addressService;
+
+    @Autowired
+    private MembershipCache membershipCache;
+
+    @Autowired
+    private MinimizedCompanySnapshot minimizedCompanySnapshot;
+
+    @Autowired
+    private BucketCleanupService bucketCleanupService;
+
     /**
      * Create a company.
      *
@@ -44,7 +80,9 @@ public class CompanyService {
         logger.info("Starting the creation of a company");
 
         // Save the company in the database and return it
-        return companyRepository.save(company);
+        Company savedCompany = companyRepository.save(company);
+        minimizedCompanySnapshot.put(savedCompany.getId(), savedCompany.getName());
+        return savedCompany;
     }
 
     /**
@@ -56,6 +94,138 @@ public class CompanyService {
         return companyRepository.findAll();
     }
 
+    /**
+     * Write every company to the given stream as newline-delimited JSON.
+     * Companies are read by pages of COMPANY_EXPORT_PAGE_SIZE ordered by id, and the persistence context is cleared
+     * once a page is written, so memory use does not depend on the number of companies. The collections of a page
+     * are loaded together thanks to their batch size, with one query per collection for the whole page.
+     *
+     * @param outputStream: the stream to write to.
+     * @throws IOException if the companies could not be written.
+     */
+    @Transactional(readOnly = true)
+    public void exportCompanies(OutputStream outputStream) throws IOException {
+        logger.info("Exporting all companies");
+        long exportedCount = 0;
+
+        Pageable pageable = PageRequest.of(0, COMPANY_EXPORT_PAGE_SIZE);
+        UUID afterId = MIN_UUID;
+
+        while (true) {
+            List<Company> companies = companyRepository.findPageOrderedById(afterId, null, null, pageable);
+
+            for (Company company: companies) {
+                outputStream.write(objectMapper.writeValueAsBytes(company));
+                outputStream.write('\n');
+            }
+
+            exportedCount += companies.size();
+            entityManager.clear();
+
+            if (companies.size() < COMPANY_EXPORT_PAGE_SIZE) {
+                break;
+            }
+            afterId = companies.get(companies.size() - 1).getId();
+        }
+
+        outputStream.flush();
+        logger.info("Completed export of " + exportedCount + " companies");
+    }
+
+    /**
+     * Get a page of companies, ordered by id or by name, starting after the given cursor.
+     *
+     * @param cursor: the cursor returned with the previous page, or null for the first page.
+     * @param size: the number of companies of the page, or null for the default size.
+     * @param sort: the order of the companies, either "id" or "name". Companies without a name are not listed by name.
+     * @param namePrefix: if not null, only companies whose name starts with this prefix are returned.
+     * @param employeesNumberRange: if not null, only companies with this employees number range are returned.
+     * @return the page of companies, with the cursor of the next page if there is one.
+     * @throws IllegalArgumentException if the size, sort or cursor is invalid.
+     */
+    public CompanyPageDTO getCompanyPage(String cursor, Integer size, String sort, String namePrefix, String employeesNumberRange) throws IllegalArgumentException {
+        logger.info("Getting a page of companies ordered by " + sort);
+
+        int pageSize = size == null ? COMPANY_PAGE_DEFAULT_SIZE : size;
+
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        pageSize = Math.min(pageSize, COMPANY_PAGE_MAX_SIZE);
+
+        // One more company than needed is fetched to know if there is a next page
+        Pageable pageable = PageRequest.of(0, pageSize + 1);
+        String escapedNamePrefix = namePrefix == null ? null : escapeLikePattern(namePrefix);
+
+        List<Company> companies;
+        if ("id".equals(sort)) {
+            UUID afterId = cursor == null ? MIN_UUID : UUID.fromString(decodeCursor(cursor, "id")[0]);
+            companies = companyRepository.findPageOrderedById(afterId, escapedNamePrefix, employeesNumberRange, pageable);
+        } else if ("name".equals(sort)) {
+            String[] cursorParts = cursor == null ? new String[] { MIN_UUID.toString(), "" } : decodeCursor(cursor, "name");
+            companies = companyRepository.findPageOrderedByName(cursorParts[1], UUID.fromString(cursorParts[0]), escapedNamePrefix, employeesNumberRange, pageable);
+        } else {
+            throw new IllegalArgumentException("Unknown sort " + sort);
+        }
+
+        String next = null;
+        if (companies.size() > pageSize) {
+            companies = new ArrayList<>(companies.subList(0, pageSize));
+            Company last = companies.get(pageSize - 1);
+            next = "id".equals(sort) ? encodeCursor("id", last.getId().toString()) : encodeCursor("name", last.getId() + ":" + last.getName());
+        }
+
+        logger.info("Returning a page of " + companies.size() + " companies");
+        return new CompanyPageDTO(companies, next);
+    }
+
+    /**
+     * Encode a pagination cursor.
+     *
+     * @param sort: the order the cursor belongs to.
+     * @param position: the position of the last returned company.
+     * @return the opaque cursor.
+     */
+    static String encodeCursor(String sort, String position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((sort + ":" + position).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a pagination cursor.
+     *
+     * @param cursor: the opaque cursor.
+     * @param sort: the order the cursor is expected to belong to.
+     * @return the id of the last returned company, followed by its name for cursors ordered by name.
+     * @throws IllegalArgumentException if the cursor is malformed or belongs to another order.
+     */
+    static String[] decodeCursor(String cursor, String sort) throws IllegalArgumentException {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+        if (!decoded.startsWith(sort + ":")) {
+            throw new IllegalArgumentException("Cursor does not match sort " + sort);
+        }
+
+        // The name may itself contain ':', so it is always the last part
+        String[] cursorParts = decoded.substring(sort.length() + 1).split(":", 2);
+
+        if (cursorParts.length != ("name".equals(sort) ? 2 : 1)) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+
+        return cursorParts;
+    }
+
+    /**
+     * Escape the wildcards of a LIKE pattern.
+     *
+     * @param value: the value to escape.
+     * @return the escaped value.
+     */
+    private String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     /**
      * Get a company by its id.
      *
@@ -78,63 +248,33 @@ public class CompanyService {
     }
 
     /**
-     * Get all companies with only their id and name.
-     * @return the list of all companies with only their id and name.
+     * Get all companies with only their id and name, already serialized.
+     * @return the snapshot of all companies with only their id and name.
      */
-    public List<CompanyMinimizedDTO> getAllCompaniesMinimized() {
+    public MinimizedCompanySnapshot.Snapshot getAllCompaniesMinimized() {
         logger.info("Getting all companies");
-        return companyRepository.getAllCompaniesMinimized();
+        return minimizedCompanySnapshot.get();
     }
 
     /**
      * Get the detailed version of a company by its id.
      *
      * @param id: the id of the company to return.
-     * @return a detailed version of the company.
+     * @return a detailed version of the company, flagged as degraded if the address microservice is unavailable.
      * @throws NotFoundException if the company was not found.
      * @throws HttpClientErrorException if the address microservice returns an error.
      */
-    public CompanyDetailsDTO getDetailedCompanyById(UUID id, String token) throws NotFoundException, HttpClientErrorException {
-        Company company = companyRepository.findById(id).orElse(null);
+    public CompanyDetailsDTO getDetailedCompanyById(UUID id, String token) throws NotFoundException, HttpClientErrorException, HttpServerErrorException {
+        Company company = companyRepository.findWithAddressIdListById(id).orElse(null);
 
         if (company != null) {
-            List<AddressDTO> addressDTOList = new ArrayList<>();
-
-            if (!company.getAddressIdList().isEmpty()){
-                for (UUID addressId: company.getAddressIdList()) {
-
-                    // Fetching address infos from address microservice
-                    HttpHeaders headers = new HttpHeaders();
-                    headers.setContentType(MediaType.APPLICATION_JSON);
-                    headers.setBearerAuth(token.split(" ")[1]);
-                    HttpEntity<UUID> requestEntity = new HttpEntity<>(null, headers);
-
-                    logger.info("trying to fetch address with id " + addressId);
-
-                    // Sending the request to address microservice
-                    ResponseEntity<AddressDTO> responseEntity = restTemplate.exchange(
-                            ADDRESS_API_URI + "/" + addressId,
-                            HttpMethod.GET,
-                            requestEntity,
-                            AddressDTO.class
-                    );
-
-                    if(responseEntity.getStatusCode() != HttpStatus.OK){
-                        logger.info(responseEntity.getStatusCode().toString());
-                        logger.error("Error while fetching address infos while getting a company");
-                        // If the status code is not 200, then throw the exception to the client
-                        throw new HttpClientErrorException(responseEntity.getStatusCode());
-                    }
-
-                    AddressDTO addressDTO = responseEntity.getBody();
-
-                    addressDTOList.add(addressDTO);
-                }
-            }
-
+            // Fetching address infos from address microservice, or the last known ones if it is unavailable
+            AddressService.AddressListResult addressListResult = addressService.getAddressListOrLastKnown(company.getAddressIdList(), token.split(" ")[1]);
 
             // Return the detailed company
-            return new CompanyDetailsDTO(company.getId(), company.getName(), company.getLogoUrl(), company.getDescription(),  addressDTOList, company.getEmployeesNumberRange(), company.getSiretNumber(), company.getDocumentsUrl());
+            CompanyDetailsDTO companyDetailsDTO = new CompanyDetailsDTO(company.getId(), company.getName(), company.getLogoUrl(), company.getDescription(),  addressListResult.addresses(), company.getEmployeesNumberRange(), company.getSiretNumber(), company.getDocumentsUrl());
+            companyDetailsDTO.setDegraded(addressListResult.degraded());
+            return companyDetailsDTO;
         }
 
         // If the company is not found, throw an exception
@@ -169,12 +309,55 @@ public class CompanyService {
         storedCompany.setDocumentsUrl(company.getDocumentsUrl());
 
         logger.info("Completed update of a company");
-        return companyRepository.save(storedCompany);
+        Company savedCompany = companyRepository.save(storedCompany);
+        minimizedCompanySnapshot.put(savedCompany.getId(), savedCompany.getName());
+        return savedCompany;
+    }
+
+    /**
+     * Add documents to a company, with a single update of the company.
+     *
+     * @param id: the id of the company.
+     * @param documentUrlList: the URLs of the documents to add, those already listed are ignored.
+     * @return the updated company.
+     * @throws NotFoundException if the company was not found.
+     */
+    public Company addDocumentUrls(UUID id, List<String> documentUrlList) throws NotFoundException {
+        Company company = getCompanyById(id);
+        List<String> documentsUrl = company.getDocumentsUrl();
+
+        boolean changed = false;
+        for (String documentUrl: documentUrlList) {
+            if (!documentsUrl.contains(documentUrl)) {
+                documentsUrl.add(documentUrl);
+                changed = true;
+            }
+        }
+
+        return changed ? updateCompany(company) : company;
+    }
+
+    /**
+     * Remove documents from a company, with a single update of the company.
+     *
+     * @param id: the id of the company.
+     * @param documentUrlList: the URLs of the documents to remove, those not listed are ignored.
+     * @return the updated company.
+     * @throws NotFoundException if the company was not found.
+     */
+    public Company removeDocumentUrls(UUID id, List<String> documentUrlList) throws NotFoundException {
+        Company company = getCompanyById(id);
+
+        boolean changed = company.getDocumentsUrl().removeAll(documentUrlList);
+
+        return changed ? updateCompany(company) : company;
     }
 
     /**
      * Delete a company by its id.
+     * Its buckets are emptied and removed in the background, the cleanup being queued in the same transaction.
      */
+    @Transactional
     public void deleteCompany(UUID id) throws NotFoundException {
         logger.info("Starting the deletion of a company");
         Company storedCompany = companyRepository.findById(id).orElse(null);
@@ -189,45 +372,32 @@ public class CompanyService {
 
         // Delete the company
         companyRepository.deleteById(id);
+        bucketCleanupService.scheduleCleanup("logo-" + id);
+        bucketCleanupService.scheduleCleanup("documents-" + id);
+        minimizedCompanySnapshot.remove(id);
+        membershipCache.invalidateCompany(id);
     }
 
-    public List<AddressDTO> getCompanyAddressList(UUID id, String token) {
-        Company company = getCompanyById(id);
-
-        List<UUID> addressList = company.getAddressIdList();
-
-        List<AddressDTO> addressDTOList = new ArrayList<>();
-
-        for (UUID addressId: addressList) {
-            // Fetching address infos from address microservice
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(token);
-            HttpEntity<UUID> requestEntity = new HttpEntity<>(null, headers);
-
-            logger.info("trying to fetch address with id " + addressId);
-
-            // Sending the request to address microservice
-            ResponseEntity<AddressDTO> responseEntity = restTemplate.exchange(
-                    ADDRESS_API_URI + "/" + addressId,
-                    HttpMethod.GET,
-                    requestEntity,
-                    AddressDTO.class
-            );
-
-            if(responseEntity.getStatusCode() != HttpStatus.OK){
-                logger.info(responseEntity.getStatusCode().toString());
-                logger.error("Error while fetching address infos while getting a company");
-                // If the status code is not 200, then throw the exception to the client
-                throw new HttpClientErrorException(responseEntity.getStatusCode());
-            }
-
-            AddressDTO addressDTO = responseEntity.getBody();
+    /**
+     * Get the addresses of a company, falling back to the last known addresses when the address microservice is
+     * unavailable.
+     *
+     * @param id: the id of the company.
+     * @param token: the token of the user, without the "Bearer " prefix.
+     * @return the addresses, degraded if some of them are the last known ones or are missing.
+     * @throws NotFoundException if the company was not found.
+     * @throws HttpClientErrorException if the address microservice returns a client error.
+     */
+    public AddressService.AddressListResult getCompanyAddressList(UUID id, String token) throws NotFoundException, HttpClientErrorException {
+        Company company = companyRepository.findWithAddressIdListById(id).orElse(null);
 
-            addressDTOList.add(addressDTO);
+        if (company == null) {
+            logger.error("Error while getting the addresses of a company: company not found");
+            // If the company is not found, throw an exception
+            throw new NotFoundException("Company not found");
         }
 
-        return addressDTOList;
+        return addressService.getAddressListOrLastKnown(company.getAddressIdList(), token);
     }
 
     /**
@@ -246,6 +416,13 @@ public class CompanyService {
         Claim subClaim = jwt.getClaim("sub");
         UUID userId = UUID.fromString(subClaim.asString());
 
+        Boolean cachedMembership = membershipCache.get(userId, companyId);
+
+        if (cachedMembership != null) {
+            logger.info("Using cached membership of user with id " + userId);
+            return cachedMembership;
+        }
+
         // Fetching user infos from user microservice
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(token);
@@ -254,11 +431,14 @@ public class CompanyService {
         logger.info("Fetching user with id " + userId);
 
         // Sending the request to user microservice
-        ResponseEntity<RecruiterDTO> responseEntity = restTemplate.exchange(
+        // Fails closed: while the user microservice is unavailable, only the cached decisions are served
+        ResponseEntity<RecruiterDTO> responseEntity = hedgedCaller.exchange(
+                ResilienceConfig.USER_API,
                 USER_API_URI + "/" + userId,
                 HttpMethod.GET,
                 requestEntity,
-                RecruiterDTO.class
+                RecruiterDTO.class,
+                RequestDeadline.current()
         );
         RecruiterDTO recruiterDTO = responseEntity.getBody();
         if (recruiterDTO == null) {
@@ -267,6 +447,20 @@ public class CompanyService {
             throw new HttpClientErrorException(HttpStatus.FORBIDDEN, "User is not a recruiter");
         }
 
-        return recruiterDTO.getCompanyId().equals(companyId);
+        boolean isMember = recruiterDTO.getCompanyId().equals(companyId);
+
+        membershipCache.put(userId, companyId, isMember, jwt.getExpiresAtAsInstant());
+
+        return isMember;
+    }
+
+    /**
+     * Forget the cached membership decisions of a user, e.g. after the user changed company.
+     *
+     * @param userId: the id of the user.
+     */
+    public void invalidateUserMemberships(UUID userId) {
+        logger.info("Invalidating cached memberships of user with id " + userId);
+        membershipCache.invalidateUser(userId);
     }
 }
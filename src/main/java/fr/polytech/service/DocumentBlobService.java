@@ -0,0 +1,264 @@
+package fr.polytech.service;
+
+import fr.polytech.model.DocumentBlob;
+import fr.polytech.repository.DocumentBlobRepository;
+import io.minio.errors.MinioException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Service to store document contents once, by SHA-256 hash, in the private document blobs bucket.
+ * <p>
+ * Each stored content keeps a count of the documents referencing it, and is removed when the last reference is
+ * released. The counter row is deleted first, and the content object only once that deletion is committed, so a failed
+ * commit never leaves a counter pointing at a missing object. Uploading a new content and removing an unreferenced one
+ * both hold a lock on the hash, so a concurrent store of the same content either keeps the content alive or uploads it
+ * again after its removal.
+ */
+@Service
+public class DocumentBlobService {
+
+    private final Logger logger = LoggerFactory.getLogger(DocumentBlobService.class);
+
+    private final String DOCUMENT_BLOB_BUCKET = Optional.ofNullable(System.getenv("DOCUMENT_BLOB_BUCKET")).orElse("document-blobs");
+
+    // User metadata of a document referencing its content by hash
+    public static final String CONTENT_HASH_METADATA = "content-sha256";
+
+    // Streamed uploads land here until their hash is known
+    private static final String STAGING_PREFIX = "staging/";
+    private static final int HASH_BUFFER_SIZE = 8192;
+
+    @Autowired
+    private DocumentBlobRepository documentBlobRepository;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Store the content of an uploaded file and take a reference on it.
+     * The file is hashed first, so that a content already stored is not uploaded again.
+     *
+     * @param file: the file to store.
+     * @return the SHA-256 hash of the content.
+     */
+    public String store(MultipartFile file) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String contentHash;
+        try (InputStream inputStream = file.getInputStream()) {
+            contentHash = hash(inputStream);
+        }
+
+        if (documentBlobRepository.incrementReferenceCount(contentHash) > 0) {
+            logger.info("Content " + contentHash + " is already stored, skipping the upload");
+            return contentHash;
+        }
+
+        storeNewContent(contentHash, file.getSize(), () -> {
+            try (InputStream inputStream = file.getInputStream()) {
+                minioService.uploadStream(DOCUMENT_BLOB_BUCKET, contentHash, inputStream, file.getSize(), file.getContentType(), false);
+            }
+        });
+        return contentHash;
+    }
+
+    /**
+     * Store the content of a stream and take a reference on it.
+     * The stream can only be read once, so it is hashed while it is uploaded to a staging object, which is then
+     * copied under its hash unless that content is already stored.
+     *
+     * @param inputStream: the stream to store, it is not closed.
+     * @param size: the size of the stream.
+     * @param contentType: the content type of the stream.
+     * @return the SHA-256 hash of the content.
+     */
+    public String store(InputStream inputStream, long size, String contentType) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        String stagingObjectName = STAGING_PREFIX + UUID.randomUUID();
+
+        try {
+            minioService.uploadStream(DOCUMENT_BLOB_BUCKET, stagingObjectName, new DigestInputStream(inputStream, digest), size, contentType, false);
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+
+            if (documentBlobRepository.incrementReferenceCount(contentHash) > 0) {
+                logger.info("Content " + contentHash + " is already stored, dropping the staged upload");
+                return contentHash;
+            }
+
+            storeNewContent(contentHash, size, () -> minioService.copyObject(DOCUMENT_BLOB_BUCKET, contentHash, DOCUMENT_BLOB_BUCKET, stagingObjectName));
+            return contentHash;
+        } finally {
+            minioService.removeObjects(DOCUMENT_BLOB_BUCKET, List.of(stagingObjectName));
+        }
+    }
+
+    /**
+     * Release a reference on a content, removing the content once it is no longer referenced.
+     * The content object is removed after the transaction commits, a failure to remove it only leaves an unreferenced
+     * object behind.
+     *
+     * @param contentHash: the SHA-256 hash of the content.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void release(String contentHash) {
+        DocumentBlob documentBlob = documentBlobRepository.findByHashForUpdate(contentHash).orElse(null);
+
+        if (documentBlob == null) {
+            logger.warn("Released content " + contentHash + " is not referenced");
+            return;
+        }
+
+        if (documentBlob.getReferenceCount() > 1) {
+            documentBlob.setReferenceCount(documentBlob.getReferenceCount() - 1);
+            return;
+        }
+
+        documentBlobRepository.delete(documentBlob);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                removeUnreferencedContent(contentHash);
+            }
+        });
+    }
+
+    /**
+     * Get the private URL of a content.
+     *
+     * @param contentHash: the SHA-256 hash of the content.
+     * @param downloadName: the file name given to the download.
+     * @return the private URL of the content.
+     */
+    public String getPrivateUrl(String contentHash, String downloadName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return minioService.getPrivateDocumentUrl(DOCUMENT_BLOB_BUCKET, contentHash, downloadName);
+    }
+
+    /**
+     * Get the name of the bucket the contents are stored in.
+     *
+     * @return the name of the bucket.
+     */
+    public String getBucketName() {
+        return DOCUMENT_BLOB_BUCKET;
+    }
+
+    /**
+     * Get the hash of the content a document references, from the user metadata of the document.
+     * Minio returns the metadata keys with their original case, and prefixed with "X-Amz-Meta-" in listings.
+     *
+     * @param userMetadata: the user metadata of the document, possibly null.
+     * @return the hash, or null if the document holds its content itself.
+     */
+    public static String getContentHash(Map<String, String> userMetadata) {
+        if (userMetadata == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, String> metadata: userMetadata.entrySet()) {
+            if (metadata.getKey().toLowerCase().endsWith(CONTENT_HASH_METADATA)) {
+                return metadata.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Upload a content that was not stored yet and take the first reference on it, holding the lock on its hash.
+     * The reference count is checked again under the lock, as the content may have been stored in the meantime.
+     *
+     * @param contentHash: the SHA-256 hash of the content.
+     * @param size: the size of the content.
+     * @param upload: the upload of the content under its hash.
+     */
+    private void storeNewContent(String contentHash, long size, ContentUpload upload) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        TransactionStatus status = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+
+        try {
+            documentBlobRepository.lockContent(contentHash);
+
+            if (documentBlobRepository.incrementReferenceCount(contentHash) == 0) {
+                upload.run();
+                documentBlobRepository.insertOrIncrementReferenceCount(contentHash, size);
+            }
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+            transactionManager.rollback(status);
+            throw e;
+        }
+
+        transactionManager.commit(status);
+    }
+
+    /**
+     * Remove the object of a content whose counter row was deleted, unless the content was stored again since.
+     * Runs in its own transaction, holding the lock on the hash so that no upload of the same content interleaves.
+     *
+     * @param contentHash: the SHA-256 hash of the content.
+     */
+    private void removeUnreferencedContent(String contentHash) {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        TransactionStatus status = transactionManager.getTransaction(definition);
+
+        try {
+            documentBlobRepository.lockContent(contentHash);
+
+            if (documentBlobRepository.existsById(contentHash)) {
+                logger.info("Content " + contentHash + " was stored again, keeping it");
+            } else {
+                minioService.deleteFileFromPrivateBucket(DOCUMENT_BLOB_BUCKET, contentHash);
+                logger.info("Removed content " + contentHash + " which is no longer referenced");
+            }
+        } catch (Exception e) {
+            logger.error("Error while removing the unreferenced content " + contentHash + ": " + e.getMessage());
+        } finally {
+            // Nothing was written, committing only releases the lock
+            transactionManager.commit(status);
+        }
+    }
+
+    /**
+     * Compute the SHA-256 hash of a stream.
+     *
+     * @param inputStream: the stream, read until its end.
+     * @return the hash, in lowercase hexadecimal.
+     */
+    private String hash(InputStream inputStream) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @FunctionalInterface
+    private interface ContentUpload {
+        void run() throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException;
+    }
+}
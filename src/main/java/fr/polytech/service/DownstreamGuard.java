@@ -0,0 +1,57 @@
+package fr.polytech.service;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs the calls to the other microservices behind the bulkhead and the circuit breaker of each of them.
+ * <p>
+ * The bulkhead is checked first, so that rejected calls are not counted by the circuit breaker, which only measures
+ * the calls that reached the other microservice.
+ */
+@Component
+public class DownstreamGuard {
+
+    private final Logger logger = LoggerFactory.getLogger(DownstreamGuard.class);
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    @Autowired
+    private BulkheadRegistry bulkheadRegistry;
+
+    /**
+     * Call another microservice, unless its circuit is open or it already has too many calls in progress.
+     *
+     * @param downstream: the name of the microservice, see {@link fr.polytech.config.ResilienceConfig}.
+     * @param call: the call.
+     * @return the result of the call.
+     * @throws HttpServerErrorException with status 503 if the call was rejected.
+     */
+    public <T> T call(String downstream, Supplier<T> call) throws HttpServerErrorException {
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(downstream, downstream);
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(downstream);
+
+        try {
+            return bulkhead.executeSupplier(() -> circuitBreaker.executeSupplier(call));
+        } catch (CallNotPermittedException e) {
+            logger.warn("Call to " + downstream + " rejected: circuit is open");
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Circuit of " + downstream + " is open");
+        } catch (BulkheadFullException e) {
+            logger.warn("Call to " + downstream + " rejected: too many calls in progress");
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Too many calls in progress to " + downstream);
+        }
+    }
+}
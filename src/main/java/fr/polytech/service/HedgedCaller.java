@@ -0,0 +1,309 @@
+package fr.polytech.service;
+
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends the lookups to the other microservices within the deadline of the request, hedging the slow ones.
+ * <p>
+ * When an attempt has not answered after the HEDGE_PERCENTILE latency of its microservice, the same request is sent to
+ * another instance of it, and the first answer wins. Hedges are paid from a budget shared by all the microservices,
+ * which every call refills by HEDGE_BUDGET_RATIO, so that they add at most that share of load to the other services.
+ * Every attempt goes through the {@link DownstreamGuard}, so hedges also count in the bulkheads and circuit breakers.
+ * <p>
+ * Only idempotent lookups must be sent through here.
+ */
+@Component
+public class HedgedCaller {
+
+    private final Logger logger = LoggerFactory.getLogger(HedgedCaller.class);
+
+    private final boolean HEDGE_ENABLED = Boolean.parseBoolean(Optional.ofNullable(System.getenv("HEDGE_ENABLED")).orElse("true"));
+    private final double HEDGE_PERCENTILE = Double.parseDouble(Optional.ofNullable(System.getenv("HEDGE_PERCENTILE")).orElse("95"));
+    private final int HEDGE_LATENCY_WINDOW = Integer.parseInt(Optional.ofNullable(System.getenv("HEDGE_LATENCY_WINDOW")).orElse("1000"));
+    private final int HEDGE_MIN_SAMPLES = Integer.parseInt(Optional.ofNullable(System.getenv("HEDGE_MIN_SAMPLES")).orElse("100"));
+    private final long HEDGE_MIN_DELAY_MS = Long.parseLong(Optional.ofNullable(System.getenv("HEDGE_MIN_DELAY_MS")).orElse("20"));
+    private final double HEDGE_BUDGET_RATIO = Double.parseDouble(Optional.ofNullable(System.getenv("HEDGE_BUDGET_RATIO")).orElse("0.05"));
+    private final double HEDGE_BUDGET_MAX_TOKENS = Double.parseDouble(Optional.ofNullable(System.getenv("HEDGE_BUDGET_MAX_TOKENS")).orElse("10"));
+
+    // Sorting the latency window on every call would cost more than the hedges save
+    private static final int THRESHOLD_UPDATE_INTERVAL = 50;
+
+    private final Map<String, LatencyWindow> latencyWindows = new ConcurrentHashMap<>();
+
+    // Round robin position of each service, so that consecutive calls start on different instances
+    private final Map<String, AtomicInteger> nextInstanceIndexes = new ConcurrentHashMap<>();
+
+    // Hedges that can be sent right now, guarded by this
+    private double hedgeTokens = HEDGE_BUDGET_MAX_TOKENS;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    @Qualifier("instanceRestTemplate")
+    private RestTemplate instanceRestTemplate;
+
+    @Autowired
+    private DiscoveryClient discoveryClient;
+
+    @Autowired
+    private DownstreamGuard downstreamGuard;
+
+    @Autowired
+    @Qualifier("outboundCallExecutor")
+    private ExecutorService outboundCallExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Send a lookup to another microservice, with the time left before the deadline in its budget header.
+     * A request to a "lb://" URI of a service with several instances is hedged once its latency threshold is known.
+     * <p>
+     * A request that is not hedged is sent on the calling thread: the deadline is only forwarded in the budget header,
+     * and the call is bounded locally by the timeouts of the HTTP client, not by the deadline. A hedged call gives up at
+     * the deadline, the attempts already sent are then abandoned and keep their bulkhead permit until they end, but a
+     * hedge not sent yet is skipped.
+     *
+     * @param downstream: the name of the microservice, see {@link fr.polytech.config.ResilienceConfig}.
+     * @param uri: the URI of the request.
+     * @param method: the method of the request.
+     * @param requestEntity: the headers and body of the request.
+     * @param responseType: the type of the response body.
+     * @param deadlineNanos: the deadline of the request, see {@link RequestDeadline}.
+     * @return the first response.
+     * @throws HttpServerErrorException with status 504 if no response arrived before the deadline.
+     * @throws RestClientException if every attempt failed.
+     */
+    public <T> ResponseEntity<T> exchange(String downstream, String uri, HttpMethod method, HttpEntity<?> requestEntity, Class<T> responseType, long deadlineNanos) throws RestClientException {
+        long remainingMs = RequestDeadline.remainingMillis(deadlineNanos);
+
+        if (remainingMs == 0) {
+            logger.warn("Deadline reached before calling " + downstream);
+            throw new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT, "Deadline reached before calling " + downstream);
+        }
+
+        earnHedgeToken();
+
+        URI target = URI.create(uri);
+        long hedgeDelayMs = latencyWindow(downstream).thresholdMillis;
+        List<ServiceInstance> instances = HEDGE_ENABLED && hedgeDelayMs >= 0 && hedgeDelayMs < remainingMs && "lb".equals(target.getScheme())
+                ? discoveryClient.getInstances(target.getHost())
+                : List.of();
+
+        if (instances.size() < 2) {
+            return timed(downstream, () -> restTemplate.exchange(uri, method, withBudget(requestEntity, deadlineNanos), responseType));
+        }
+
+        int primaryIndex = Math.floorMod(nextInstanceIndexes.computeIfAbsent(target.getHost(), host -> new AtomicInteger()).getAndIncrement(), instances.size());
+        ServiceInstance primaryInstance = instances.get(primaryIndex);
+        ServiceInstance hedgeInstance = instances.get((primaryIndex + 1) % instances.size());
+
+        CompletableFuture<ResponseEntity<T>> result = new CompletableFuture<>();
+        AtomicInteger pendingAttempts = new AtomicInteger(1);
+
+        CompletableFuture
+                .supplyAsync(() -> attempt(downstream, primaryInstance, target, method, requestEntity, responseType, deadlineNanos), outboundCallExecutor)
+                .whenComplete((response, throwable) -> completeAttempt(result, pendingAttempts, response, throwable));
+
+        // The delayed executor submits the hedge from its own thread, so the trace is captured here
+        CompletableFuture.delayedExecutor(hedgeDelayMs, TimeUnit.MILLISECONDS, outboundCallExecutor).execute(ContextSnapshot.captureAll().wrap(() -> {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (!takeHedgeToken()) {
+                meterRegistry.counter("outbound.hedges", "downstream", downstream, "outcome", "budget-exhausted").increment();
+                return;
+            }
+
+            pendingAttempts.incrementAndGet();
+            meterRegistry.counter("outbound.hedges", "downstream", downstream, "outcome", "sent").increment();
+
+            try {
+                ResponseEntity<T> response = attempt(downstream, hedgeInstance, target, method, requestEntity, responseType, deadlineNanos);
+                if (completeAttempt(result, pendingAttempts, response, null)) {
+                    meterRegistry.counter("outbound.hedges", "downstream", downstream, "outcome", "won").increment();
+                }
+            } catch (RuntimeException e) {
+                completeAttempt(result, pendingAttempts, null, e);
+            }
+        }));
+
+        try {
+            return result.get(RequestDeadline.remainingMillis(deadlineNanos), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Completing the call makes the hedge give up if it was not sent yet
+            if (result.completeExceptionally(e)) {
+                meterRegistry.counter("outbound.attempts.abandoned", "downstream", downstream).increment(pendingAttempts.get());
+            }
+
+            logger.error("Error while calling " + downstream + ": deadline reached");
+            throw new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT, downstream + " did not answer before the deadline");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR, "Call to " + downstream + " failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Call to " + downstream + " interrupted");
+        }
+    }
+
+    /**
+     * Report the outcome of an attempt. A response or a client error is the answer of the service and completes the
+     * call, while other failures only complete it once no other attempt is pending.
+     *
+     * @param result: the result of the call.
+     * @param pendingAttempts: the number of attempts still pending, this one included.
+     * @param response: the response of the attempt, if it succeeded.
+     * @param throwable: the failure of the attempt, if it failed.
+     * @return true if this attempt completed the call.
+     */
+    private <T> boolean completeAttempt(CompletableFuture<ResponseEntity<T>> result, AtomicInteger pendingAttempts, ResponseEntity<T> response, Throwable throwable) {
+        boolean lastAttempt = pendingAttempts.decrementAndGet() == 0;
+
+        if (throwable == null) {
+            return result.complete(response);
+        }
+
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+
+        if (cause instanceof HttpClientErrorException || lastAttempt) {
+            return result.completeExceptionally(cause);
+        }
+
+        return false;
+    }
+
+    /**
+     * Send a request to a given instance of a service.
+     */
+    private <T> ResponseEntity<T> attempt(String downstream, ServiceInstance instance, URI target, HttpMethod method, HttpEntity<?> requestEntity, Class<T> responseType, long deadlineNanos) {
+        URI instanceUri = UriComponentsBuilder.fromUri(instance.getUri())
+                .path(target.getRawPath())
+                .query(target.getRawQuery())
+                .build(true)
+                .toUri();
+
+        return timed(downstream, () -> instanceRestTemplate.exchange(instanceUri, method, withBudget(requestEntity, deadlineNanos), responseType));
+    }
+
+    /**
+     * Send a request through the guard of its microservice, and time it by status.
+     * Only the latencies of the successful attempts are used to compute the hedge threshold.
+     */
+    private <T> ResponseEntity<T> timed(String downstream, Supplier<ResponseEntity<T>> call) {
+        long start = System.nanoTime();
+        String status = "IO_ERROR";
+
+        try {
+            ResponseEntity<T> response = downstreamGuard.call(downstream, call);
+            status = String.valueOf(response.getStatusCode().value());
+            latencyWindow(downstream).record(System.nanoTime() - start);
+            return response;
+        } catch (HttpStatusCodeException e) {
+            status = String.valueOf(e.getStatusCode().value());
+            throw e;
+        } finally {
+            Timer.builder("outbound.calls")
+                    .tag("downstream", downstream)
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Copy a request, with the time left before the deadline in its budget header.
+     */
+    private HttpEntity<?> withBudget(HttpEntity<?> requestEntity, long deadlineNanos) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(requestEntity.getHeaders());
+        headers.set(RequestDeadline.BUDGET_HEADER, String.valueOf(RequestDeadline.remainingMillis(deadlineNanos)));
+
+        return new HttpEntity<>(requestEntity.getBody(), headers);
+    }
+
+    private LatencyWindow latencyWindow(String downstream) {
+        return latencyWindows.computeIfAbsent(downstream, key -> new LatencyWindow());
+    }
+
+    private synchronized void earnHedgeToken() {
+        hedgeTokens = Math.min(HEDGE_BUDGET_MAX_TOKENS, hedgeTokens + HEDGE_BUDGET_RATIO);
+    }
+
+    private synchronized boolean takeHedgeToken() {
+        if (hedgeTokens < 1) {
+            return false;
+        }
+
+        hedgeTokens -= 1;
+        return true;
+    }
+
+    /**
+     * Latencies of the last HEDGE_LATENCY_WINDOW successful attempts to a microservice, and the HEDGE_PERCENTILE
+     * latency computed from them.
+     */
+    private class LatencyWindow {
+
+        private final long[] latencies = new long[HEDGE_LATENCY_WINDOW];
+        private int count;
+        private int next;
+
+        // Negative until HEDGE_MIN_SAMPLES latencies are known, calls are not hedged until then
+        private volatile long thresholdMillis = -1;
+
+        private synchronized void record(long latencyNanos) {
+            latencies[next] = latencyNanos;
+            next = (next + 1) % latencies.length;
+            count = Math.min(count + 1, latencies.length);
+
+            if (count >= HEDGE_MIN_SAMPLES && next % THRESHOLD_UPDATE_INTERVAL == 0) {
+                long[] sortedLatencies = Arrays.copyOf(latencies, count);
+                Arrays.sort(sortedLatencies);
+
+                int index = Math.max(0, (int) Math.ceil(HEDGE_PERCENTILE / 100 * count) - 1);
+                thresholdMillis = Math.max(HEDGE_MIN_DELAY_MS, TimeUnit.NANOSECONDS.toMillis(sortedLatencies[index]));
+            }
+        }
+    }
+}
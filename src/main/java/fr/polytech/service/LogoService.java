@@ -0,0 +1,300 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.minio.GetObjectResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Service to generate resized renditions of the company logos, stored as "logo-{size}" next to the original "logo"
+ * object of the public "logo-{id}" bucket.
+ * <p>
+ * Renditions are generated in the background on the bounded logo executor, so that uploading a logo does not wait for
+ * the image processing. The renditions of the previous logo are removed when a new one is uploaded, and until the new
+ * ones are ready, {@link #getLogoUrl(UUID, Integer)} falls back to the original.
+ */
+@Service
+public class LogoService {
+
+    private final Logger logger = LoggerFactory.getLogger(LogoService.class);
+
+    private final String MINIO_BASE_URI = Optional.ofNullable(System.getenv("MINIO_BASE_URI")).orElse("http://localhost:9000");
+
+    // Width and height, in pixels, of the square each rendition fits in
+    private final List<Integer> LOGO_RENDITION_SIZES = Arrays.stream(Optional.ofNullable(System.getenv("LOGO_RENDITION_SIZES")).orElse("64,128,512").split(","))
+            .map(String::trim)
+            .map(Integer::parseInt)
+            .sorted()
+            .toList();
+
+    // Decoded images take 4 bytes per pixel, larger logos are not processed
+    private final long LOGO_MAX_PIXELS = Long.parseLong(Optional.ofNullable(System.getenv("LOGO_MAX_PIXELS")).orElse("25000000"));
+
+    private final long LOGO_RENDITION_CACHE_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("LOGO_RENDITION_CACHE_TTL_SECONDS")).orElse("60"));
+
+    public static final String ORIGINAL_OBJECT_NAME = "logo";
+
+    // Whether each rendition exists, so that serving a logo does not ask Minio every time
+    private final Cache<RenditionKey, Boolean> renditionCache = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(Duration.ofSeconds(LOGO_RENDITION_CACHE_TTL_SECONDS))
+            .recordStats()
+            .build();
+
+    // Companies whose renditions are queued, a new upload while queued is picked up by the queued task
+    private final Set<UUID> pendingCompanies = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("logoExecutor")
+    private ExecutorService logoExecutor;
+
+    /**
+     * Expose the hit, miss and eviction counters of the rendition cache.
+     */
+    @PostConstruct
+    public void bindMetrics() {
+        CaffeineCacheMetrics.monitor(meterRegistry, renditionCache, "logo-renditions");
+    }
+
+    /**
+     * Remove the renditions of a company's previous logo, then queue the generation of the renditions of its new logo.
+     * If the logo executor is saturated or the logo cannot be processed, the original keeps being served.
+     *
+     * @param companyId: the id of the company.
+     */
+    public void scheduleRenditions(UUID companyId) {
+        removeRenditions(companyId);
+
+        if (!pendingCompanies.add(companyId)) {
+            logger.info("Renditions of the logo of company with id " + companyId + " are already queued");
+            return;
+        }
+
+        try {
+            logoExecutor.execute(() -> {
+                pendingCompanies.remove(companyId);
+                generateRenditions(companyId);
+            });
+        } catch (RejectedExecutionException e) {
+            pendingCompanies.remove(companyId);
+            logger.warn("Logo executor is saturated, renditions of the logo of company with id " + companyId + " are skipped");
+        }
+    }
+
+    /**
+     * Get the URL of a company's logo, in the smallest rendition at least as large as the requested size.
+     *
+     * @param companyId: the id of the company.
+     * @param size: the size the logo is displayed at, in pixels, or null for the original.
+     * @return the URL of the rendition, or of the original if the rendition is not available.
+     */
+    public String getLogoUrl(UUID companyId, Integer size) {
+        String bucketName = getBucketName(companyId);
+        String originalUrl = MINIO_BASE_URI + "/" + bucketName + "/" + ORIGINAL_OBJECT_NAME;
+
+        if (size == null || LOGO_RENDITION_SIZES.isEmpty()) {
+            return originalUrl;
+        }
+
+        int renditionSize = LOGO_RENDITION_SIZES.stream()
+                .filter(renditionSizeCandidate -> renditionSizeCandidate >= size)
+                .findFirst()
+                .orElse(LOGO_RENDITION_SIZES.get(LOGO_RENDITION_SIZES.size() - 1));
+
+        String objectName = getRenditionObjectName(renditionSize);
+        Boolean available = renditionCache.get(new RenditionKey(companyId, renditionSize), key -> objectExists(bucketName, objectName));
+
+        return Boolean.TRUE.equals(available) ? MINIO_BASE_URI + "/" + bucketName + "/" + objectName : originalUrl;
+    }
+
+    /**
+     * Get the bucket of a company's logo.
+     *
+     * @param companyId: the id of the company.
+     * @return the name of the bucket.
+     */
+    public String getBucketName(UUID companyId) {
+        return "logo-" + companyId;
+    }
+
+    /**
+     * Decode the original logo once, then write every rendition from the largest to the smallest, each one being
+     * resized from the previous.
+     *
+     * @param companyId: the id of the company.
+     */
+    private void generateRenditions(UUID companyId) {
+        String bucketName = getBucketName(companyId);
+
+        try {
+            BufferedImage image;
+            String originalEtag;
+            try (GetObjectResponse getObjectResponse = minioService.getObject(bucketName, ORIGINAL_OBJECT_NAME, 0, null)) {
+                originalEtag = getObjectResponse.headers().get("ETag");
+                image = decode(getObjectResponse);
+            }
+
+            if (image == null) {
+                logger.warn("Logo of company with id " + companyId + " is not a supported image, no renditions generated");
+                return;
+            }
+
+            for (int size: LOGO_RENDITION_SIZES.stream().sorted(Comparator.reverseOrder()).toList()) {
+                image = resize(image, size);
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", outputStream);
+
+                minioService.uploadStream(bucketName, getRenditionObjectName(size), new ByteArrayInputStream(outputStream.toByteArray()), outputStream.size(), "image/png", true);
+                renditionCache.put(new RenditionKey(companyId, size), true);
+            }
+
+            // A logo uploaded while these renditions were generated already removed the previous ones, and these are
+            // stale as well. The task queued by that upload writes the right ones.
+            if (originalEtag == null || !originalEtag.equals(minioService.statObject(bucketName, ORIGINAL_OBJECT_NAME).etag())) {
+                logger.info("Logo of company with id " + companyId + " changed while its renditions were generated, removing them");
+                removeRenditions(companyId);
+                return;
+            }
+
+            logger.info("Generated " + LOGO_RENDITION_SIZES.size() + " renditions of the logo of company with id " + companyId);
+        } catch (Exception e) {
+            logger.error("Error while generating the renditions of the logo of company with id " + companyId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decode an image, in memory, refusing images with more than LOGO_MAX_PIXELS pixels before decoding them.
+     *
+     * @param inputStream: the encoded image.
+     * @return the image, or null if its format is not supported.
+     * @throws IOException if the image could not be read or is too large.
+     */
+    private BufferedImage decode(InputStream inputStream) throws IOException {
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(inputStream)) {
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+
+            if (!imageReaders.hasNext()) {
+                return null;
+            }
+
+            ImageReader imageReader = imageReaders.next();
+            try {
+                imageReader.setInput(imageInputStream, true, true);
+
+                long pixels = (long) imageReader.getWidth(0) * imageReader.getHeight(0);
+                if (pixels > LOGO_MAX_PIXELS) {
+                    throw new IOException("Logo of " + pixels + " pixels is larger than " + LOGO_MAX_PIXELS + " pixels");
+                }
+
+                return imageReader.read(0);
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Resize an image to fit in a square, keeping its aspect ratio and never enlarging it.
+     * The image is halved step by step, as a single bilinear pass from a much larger image loses most of its details.
+     *
+     * @param image: the image.
+     * @param size: the width and height of the square.
+     * @return the resized image.
+     */
+    private BufferedImage resize(BufferedImage image, int size) {
+        double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+
+        return current;
+    }
+
+    /**
+     * Remove the renditions of a company's logo and forget that they exist.
+     * A failure is only logged, the renditions are overwritten by the next generation.
+     *
+     * @param companyId: the id of the company.
+     */
+    private void removeRenditions(UUID companyId) {
+        for (int size: LOGO_RENDITION_SIZES) {
+            renditionCache.invalidate(new RenditionKey(companyId, size));
+        }
+
+        try {
+            minioService.removeObjects(getBucketName(companyId), LOGO_RENDITION_SIZES.stream().map(this::getRenditionObjectName).toList());
+        } catch (Exception e) {
+            logger.error("Error while removing the renditions of the logo of company with id " + companyId + ": " + e.getMessage());
+        }
+    }
+
+    private boolean objectExists(String bucketName, String objectName) {
+        try {
+            minioService.statObject(bucketName, objectName);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private String getRenditionObjectName(int size) {
+        return ORIGINAL_OBJECT_NAME + "-" + size;
+    }
+
+    private record RenditionKey(UUID companyId, int size) {
+    }
+}
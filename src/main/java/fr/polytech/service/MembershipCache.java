@@ -0,0 +1,126 @@
+package fr.polytech.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the recruiter membership decisions made by {@link CompanyService#isUserMemberOfCompany(UUID, String)}.
+ * <p>
+ * A decision never outlives the token it was made for: entries expire after MEMBERSHIP_CACHE_TTL_SECONDS or at the
+ * expiration of the token, whichever comes first.
+ */
+@Component
+public class MembershipCache {
+
+    private final long MEMBERSHIP_CACHE_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("MEMBERSHIP_CACHE_MAX_SIZE")).orElse("10000"));
+    private final long MEMBERSHIP_CACHE_TTL_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("MEMBERSHIP_CACHE_TTL_SECONDS")).orElse("300"));
+
+    private final Cache<MembershipKey, CachedMembership> cache = Caffeine.newBuilder()
+            .maximumSize(MEMBERSHIP_CACHE_MAX_SIZE)
+            .expireAfter(new CachedMembershipExpiry())
+            .recordStats()
+            .build();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Expose the hit, miss and eviction counters of the cache.
+     */
+    @PostConstruct
+    public void bindMetrics() {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "memberships");
+    }
+
+    /**
+     * Get a cached membership decision.
+     *
+     * @param userId: the id of the user (the "sub" claim of the token).
+     * @param companyId: the id of the company.
+     * @return the decision, or null if it is not cached.
+     */
+    public Boolean get(UUID userId, UUID companyId) {
+        CachedMembership cachedMembership = cache.getIfPresent(new MembershipKey(userId, companyId));
+        return cachedMembership == null ? null : cachedMembership.member();
+    }
+
+    /**
+     * Cache a membership decision.
+     *
+     * @param userId: the id of the user (the "sub" claim of the token).
+     * @param companyId: the id of the company.
+     * @param member: true if the user is a member of the company.
+     * @param tokenExpiresAt: the expiration of the token the decision was made for, or null if it has none.
+     */
+    public void put(UUID userId, UUID companyId, boolean member, Instant tokenExpiresAt) {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(MEMBERSHIP_CACHE_TTL_SECONDS);
+
+        if (tokenExpiresAt != null) {
+            long untilExpirationMillis = tokenExpiresAt.toEpochMilli() - System.currentTimeMillis();
+
+            if (untilExpirationMillis <= 0) {
+                return;
+            }
+
+            ttlNanos = Math.min(ttlNanos, TimeUnit.MILLISECONDS.toNanos(untilExpirationMillis));
+        }
+
+        cache.put(new MembershipKey(userId, companyId), new CachedMembership(member, ttlNanos));
+    }
+
+    /**
+     * Forget every decision made for a user.
+     *
+     * @param userId: the id of the user.
+     */
+    public void invalidateUser(UUID userId) {
+        cache.asMap().keySet().removeIf(key -> key.userId().equals(userId));
+    }
+
+    /**
+     * Forget every decision made for a company.
+     *
+     * @param companyId: the id of the company.
+     */
+    public void invalidateCompany(UUID companyId) {
+        cache.asMap().keySet().removeIf(key -> key.companyId().equals(companyId));
+    }
+
+    private record MembershipKey(UUID userId, UUID companyId) {
+    }
+
+    private record CachedMembership(boolean member, long ttlNanos) {
+    }
+
+    /**
+     * Expire each decision after its own time to live, computed when it was cached.
+     */
+    private static class CachedMembershipExpiry implements Expiry<MembershipKey, CachedMembership> {
+
+        @Override
+        public long expireAfterCreate(MembershipKey key, CachedMembership value, long currentTime) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(MembershipKey key, CachedMembership value, long currentTime, long currentDuration) {
+            return value.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterRead(MembershipKey key, CachedMembership value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
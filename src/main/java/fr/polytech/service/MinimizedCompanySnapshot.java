@@ -0,0 +1,210 @@
+package fr.polytech.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.polytech.model.CompanyMinimizedDTO;
+import fr.polytech.repository.CompanyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory, pre-serialized directory of all companies with only their id and name.
+ * <p>
+ * The directory is loaded from the database once, then kept up to date by the company create, update and delete
+ * operations of this instance, applied once their transaction commits. It is also reloaded every
+ * MINIMIZED_SNAPSHOT_REFRESH_MS to pick up the changes made through other instances. The changes applied while a reload
+ * reads the database are replayed over what it read, so that the reload does not undo them. The ETag is a hash of the
+ * content, so all instances agree on it.
+ */
+@Component
+public class MinimizedCompanySnapshot {
+
+    private final Logger logger = LoggerFactory.getLogger(MinimizedCompanySnapshot.class);
+
+    private final Map<UUID, CompanyMinimizedDTO> companies = new ConcurrentHashMap<>();
+
+    // Guards the changes of the directory, and the changes recorded while a reload reads the database
+    private final Object lock = new Object();
+    // Company by id, null for a removed company, or null itself when no reload is in progress
+    private Map<UUID, CompanyMinimizedDTO> changesDuringReload;
+
+    // Incremented on every change of the directory, the serialized snapshot is rebuilt when it is outdated
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+    private volatile boolean loaded = false;
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Get the serialized directory, serializing it again only if it changed since the last call.
+     *
+     * @return the current snapshot.
+     */
+    public Snapshot get() {
+        if (!loaded) {
+            reload();
+        }
+
+        Snapshot current = snapshot;
+
+        if (current == null || current.version() != version.get()) {
+            synchronized (this) {
+                current = snapshot;
+                long currentVersion = version.get();
+
+                if (current == null || current.version() != currentVersion) {
+                    current = serialize(currentVersion);
+                    snapshot = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Add or rename a company in the directory, once the current transaction commits.
+     *
+     * @param id: the id of the company.
+     * @param name: the name of the company.
+     */
+    public void put(UUID id, String name) {
+        afterCommit(() -> apply(id, new CompanyMinimizedDTO(id, name)));
+    }
+
+    /**
+     * Remove a company from the directory, once the current transaction commits.
+     *
+     * @param id: the id of the company.
+     */
+    public void remove(UUID id) {
+        afterCommit(() -> apply(id, null));
+    }
+
+    /**
+     * Reload the directory from the database.
+     * Only one reload runs at a time, and the version only changes if the directory did.
+     */
+    @Scheduled(fixedDelayString = "${MINIMIZED_SNAPSHOT_REFRESH_MS:60000}")
+    public synchronized void reload() {
+        logger.info("Reloading the minimized companies snapshot");
+
+        synchronized (lock) {
+            changesDuringReload = new HashMap<>();
+        }
+
+        Map<UUID, CompanyMinimizedDTO> storedCompanies = new HashMap<>();
+        try {
+            for (CompanyMinimizedDTO company: companyRepository.getAllCompaniesMinimized()) {
+                storedCompanies.put(company.getId(), company);
+            }
+        } finally {
+            synchronized (lock) {
+                changesDuringReload.forEach((id, company) -> {
+                    if (company == null) {
+                        storedCompanies.remove(id);
+                    } else {
+                        storedCompanies.put(id, company);
+                    }
+                });
+                changesDuringReload = null;
+            }
+        }
+
+        synchronized (lock) {
+            boolean changed = companies.keySet().retainAll(storedCompanies.keySet());
+
+            for (CompanyMinimizedDTO company: storedCompanies.values()) {
+                CompanyMinimizedDTO previous = companies.put(company.getId(), company);
+                changed |= previous == null || !Objects.equals(previous.getName(), company.getName());
+            }
+
+            if (changed) {
+                version.incrementAndGet();
+            }
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Apply a change to the directory, bumping the version only if the directory changed.
+     *
+     * @param id: the id of the company.
+     * @param company: the company, or null to remove it.
+     */
+    private void apply(UUID id, CompanyMinimizedDTO company) {
+        synchronized (lock) {
+            if (changesDuringReload != null) {
+                changesDuringReload.put(id, company);
+            }
+
+            CompanyMinimizedDTO previous = company == null ? companies.remove(id) : companies.put(id, company);
+            boolean changed = company == null ? previous != null : previous == null || !Objects.equals(previous.getName(), company.getName());
+
+            if (changed) {
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Run a change once the current transaction commits, or right away outside of a transaction.
+     *
+     * @param change: the change.
+     */
+    private void afterCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+
+    /**
+     * Serialize the directory, ordered by id so that every instance produces the same bytes.
+     *
+     * @param currentVersion: the version being serialized.
+     * @return the snapshot.
+     */
+    private Snapshot serialize(long currentVersion) {
+        List<CompanyMinimizedDTO> companyList = new ArrayList<>(companies.values());
+        companyList.sort(Comparator.comparing(CompanyMinimizedDTO::getId));
+
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(companyList);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(json);
+
+            return new Snapshot(currentVersion, json, "\"" + HexFormat.of().formatHex(hash) + "\"");
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not serialize the minimized companies", e);
+        }
+    }
+
+    /**
+     * A serialized directory and its strong ETag.
+     */
+    public record Snapshot(long version, byte[] json, String etag) {
+    }
+}
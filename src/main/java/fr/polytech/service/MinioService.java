@@ -1,27 +1,55 @@
 package fr.polytech.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.observation.annotation.Observed;
 import io.minio.*;
 import io.minio.errors.*;
 import io.minio.http.Method;
+import io.minio.messages.Bucket;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.ContentDisposition;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 
 /**
  * Service to interact with Minio.
+ * Every operation is timed, and the bytes uploaded and downloaded are counted.
  */
 @Service
+@Timed(value = "minio.operations", histogram = true)
+@Observed(name = "minio.client")
 public class MinioService {
 
     private final Logger logger = LoggerFactory.getLogger(MinioService.class);
@@ -35,6 +63,44 @@ public class MinioService {
                                                 .region(MINIO_REGION)
                                                 .build();
 
+    // Size of the parts sent to Minio, which is also the most an upload buffers in memory (at least 5MiB)
+    private final long MINIO_UPLOAD_PART_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("MINIO_UPLOAD_PART_SIZE")).orElse(String.valueOf(8 * 1024 * 1024)));
+
+    private final int PRESIGNED_UPLOAD_EXPIRY_SECONDS = Integer.parseInt(Optional.ofNullable(System.getenv("PRESIGNED_UPLOAD_EXPIRY_SECONDS")).orElse("900"));
+    private final int PRESIGNED_URL_EXPIRY_SECONDS = Integer.parseInt(Optional.ofNullable(System.getenv("PRESIGNED_URL_EXPIRY_SECONDS")).orElse("7200"));
+    private final int PRESIGNED_URL_SAFETY_MARGIN_SECONDS = Integer.parseInt(Optional.ofNullable(System.getenv("PRESIGNED_URL_SAFETY_MARGIN_SECONDS")).orElse("600"));
+
+    // Presigned URLs of each object, by download name. An entry is dropped a safety margin before MinIO stops accepting
+    // the URLs signed when it was created, the URLs added to it later expire after it
+    private final Cache<ObjectKey, PresignedUrls> presignedUrlCache = Caffeine.newBuilder()
+            .maximumSize(Long.parseLong(Optional.ofNullable(System.getenv("PRESIGNED_URL_CACHE_MAX_SIZE")).orElse("10000")))
+            .expireAfterWrite(Duration.ofSeconds(Math.max(0, PRESIGNED_URL_EXPIRY_SECONDS - PRESIGNED_URL_SAFETY_MARGIN_SECONDS)))
+            .recordStats()
+            .build();
+
+    // Buckets known to exist, so that uploads do not have to ask Minio every time
+    private final Set<String> knownBuckets = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> bucketLocks = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Lookups of a presigned URL, a hit being a URL that did not have to be signed again
+    private Counter presignedUrlHits;
+    private Counter presignedUrlMisses;
+
+    /**
+     * Expose the size and eviction counters of the presigned URL cache, and count the presigned URLs reused and
+     * signed. The cache holds the URLs of an object by download name, so its own hits count the objects found, not
+     * the URLs.
+     */
+    @PostConstruct
+    public void bindMetrics() {
+        CaffeineCacheMetrics.monitor(meterRegistry, presignedUrlCache, "presigned-url-objects");
+        presignedUrlHits = meterRegistry.counter("minio.presigned.urls", "result", "hit");
+        presignedUrlMisses = meterRegistry.counter("minio.presigned.urls", "result", "miss");
+    }
+
     /**
      * Create a public bucket in Minio.
      *
@@ -158,8 +224,25 @@ public class MinioService {
         return minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucketName).build());
     }
 
+    /**
+     * Fill the known buckets registry with the buckets already present in Minio.
+     * A failure is not fatal: the buckets will then be checked on their first upload.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadKnownBuckets() {
+        try {
+            for (Bucket bucket: minioClient.listBuckets()) {
+                knownBuckets.add(bucket.name());
+            }
+            logger.info("Loaded " + knownBuckets.size() + " known buckets from Minio");
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.warn("Could not list the buckets of Minio, they will be checked on first use: " + e.getMessage());
+        }
+    }
+
     /**
      * Create a bucket if it does not exist.
+     * Only the first upload to a bucket checks Minio, concurrent first uploads wait for it.
      *
      * @param bucketName: The name of the bucket.
      * @param isPublic: True if the bucket should be public, false otherwise.
@@ -169,15 +252,71 @@ public class MinioService {
      * @throws InvalidKeyException if the key is invalid.
      */
     private void createBucketIfNotExists(String bucketName, boolean isPublic) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
-        if (!bucketExists(bucketName)) {
-            if (isPublic) {
-                createPublicBucket(bucketName);
-            } else {
-                createPrivateBucket(bucketName);
+        if (knownBuckets.contains(bucketName)) {
+            return;
+        }
+
+        Object bucketLock = bucketLocks.computeIfAbsent(bucketName, name -> new Object());
+
+        try {
+            synchronized (bucketLock) {
+                if (knownBuckets.contains(bucketName)) {
+                    return;
+                }
+
+                if (!bucketExists(bucketName)) {
+                    try {
+                        if (isPublic) {
+                            createPublicBucket(bucketName);
+                        } else {
+                            createPrivateBucket(bucketName);
+                        }
+                    } catch (ErrorResponseException e) {
+                        // Another instance created the bucket since we checked
+                        String code = e.errorResponse().code();
+                        if (!"BucketAlreadyOwnedByYou".equals(code) && !"BucketAlreadyExists".equals(code)) {
+                            throw e;
+                        }
+                    }
+                }
+
+                knownBuckets.add(bucketName);
             }
+        } finally {
+            bucketLocks.remove(bucketName, bucketLock);
         }
     }
 
+    /**
+     * Remove a bucket from the known buckets registry, e.g. after it was deleted.
+     *
+     * @param bucketName: The name of the bucket.
+     */
+    public void forgetBucket(String bucketName) {
+        knownBuckets.remove(bucketName);
+    }
+
+    /**
+     * Remove an empty bucket, if it exists.
+     *
+     * @param bucketName: The name of the bucket.
+     * @throws MinioException if an error occurs, including if the bucket is not empty.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public void removeBucket(String bucketName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            minioClient.removeBucket(RemoveBucketArgs.builder().bucket(bucketName).build());
+        } catch (ErrorResponseException e) {
+            if (!"NoSuchBucket".equals(e.errorResponse().code())) {
+                throw e;
+            }
+        }
+
+        forgetBucket(bucketName);
+    }
+
     /**
      * Upload a file to Minio.
      *
@@ -189,52 +328,407 @@ public class MinioService {
      * @throws InvalidKeyException If the key is invalid.
      */
     public void uploadFile(String bucketName, String objectName, MultipartFile multipartFile, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        try (InputStream fileInputStream = multipartFile.getInputStream()) {
+            uploadStream(bucketName, objectName, fileInputStream, multipartFile.getSize(), multipartFile.getContentType(), isPublicFile);
+        }
+    }
+
+    /**
+     * Upload a stream to Minio, without buffering it beyond one part of MINIO_UPLOAD_PART_SIZE bytes.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param inputStream: The stream to upload, it is not closed.
+     * @param size: The size of the stream, or -1 if it is unknown.
+     * @param contentType: The content type of the object.
+     * @param isPublicFile: True if the bucket should be public, false otherwise.
+     * @throws IOException If an I/O error occurs.
+     * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available.
+     * @throws InvalidKeyException If the key is invalid.
+     * @throws MinioException If an error occurs.
+     */
+    public void uploadStream(String bucketName, String objectName, InputStream inputStream, long size, String contentType, boolean isPublicFile) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
         logger.info("Starting the upload of a file to Minio");
 
         createBucketIfNotExists(bucketName, isPublicFile);
 
-        // Get the input stream.
-        InputStream fileInputStream = multipartFile.getInputStream();
+        PutObjectArgs.Builder putObjectArgs = PutObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .stream(inputStream, size, MINIO_UPLOAD_PART_SIZE);
+
+        if (contentType != null) {
+            putObjectArgs.contentType(contentType);
+        }
+
+        // Upload the stream to the bucket with putObject, one part at a time.
+        minioClient.putObject(putObjectArgs.build());
+
+        if (size > 0) {
+            meterRegistry.counter("minio.bytes", "direction", "upload").increment(size);
+        }
+
+        logger.info("Completed the upload of a file to Minio");
+    }
+
+    /**
+     * Upload an empty object carrying only metadata, e.g. a reference to content stored elsewhere.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param userMetadata: The user metadata of the object.
+     * @param contentType: The content type of the object.
+     * @throws IOException If an I/O error occurs.
+     * @throws NoSuchAlgorithmException If the algorithm SHA-256 is not available.
+     * @throws InvalidKeyException If the key is invalid.
+     * @throws MinioException If an error occurs.
+     */
+    public void uploadMetadataObject(String bucketName, String objectName, Map<String, String> userMetadata, String contentType) throws IOException, NoSuchAlgorithmException, InvalidKeyException, MinioException {
+        createBucketIfNotExists(bucketName, false);
+
+        PutObjectArgs.Builder putObjectArgs = PutObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .userMetadata(userMetadata)
+                .stream(new ByteArrayInputStream(new byte[0]), 0, -1);
+
+        if (contentType != null) {
+            putObjectArgs.contentType(contentType);
+        }
+
+        minioClient.putObject(putObjectArgs.build());
+        invalidatePresignedUrls(bucketName, Set.of(objectName));
+    }
+
+    /**
+     * Copy an object into a private bucket, server side.
+     *
+     * @param bucketName: The name of the bucket of the copy.
+     * @param objectName: The name of the copy.
+     * @param sourceBucketName: The name of the bucket of the source.
+     * @param sourceObjectName: The name of the source.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public void copyObject(String bucketName, String objectName, String sourceBucketName, String sourceObjectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        createBucketIfNotExists(bucketName, false);
 
-        // Upload the file to the bucket with putObject.
-        minioClient.putObject(
-                PutObjectArgs.builder()
+        minioClient.copyObject(
+                CopyObjectArgs.builder()
                         .bucket(bucketName)
                         .object(objectName)
-                        .contentType(multipartFile.getContentType()) // Définissez le type de contenu si nécessaire.
-                        .stream(fileInputStream, fileInputStream.available(), -1)
+                        .source(CopySource.builder().bucket(sourceBucketName).object(sourceObjectName).build())
                         .build());
+    }
 
-        // Close the file stream.
-        fileInputStream.close();
+    /**
+     * Get the form fields allowing a client to upload an object directly to Minio with a POST request.
+     * The upload is restricted to the given object name, content type and maximum size.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param contentType: The content type the object must be uploaded with.
+     * @param maxSize: The maximum size of the object, in bytes.
+     * @param isPublicFile: True if the bucket should be public, false otherwise.
+     * @return The form fields to send along with the file.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public Map<String, String> getPresignedUploadFormData(String bucketName, String objectName, String contentType, long maxSize, boolean isPublicFile) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        logger.info("Getting a presigned upload form for bucketName: " + bucketName + " and object: " + objectName);
 
-        logger.info("Completed the upload of a file to Minio");
+        createBucketIfNotExists(bucketName, isPublicFile);
+
+        PostPolicy policy = new PostPolicy(bucketName, ZonedDateTime.now().plusSeconds(PRESIGNED_UPLOAD_EXPIRY_SECONDS));
+        policy.addEqualsCondition("key", objectName);
+        policy.addEqualsCondition("Content-Type", contentType);
+        policy.addContentLengthRangeCondition(1, maxSize);
+
+        Map<String, String> formData = new HashMap<>(minioClient.getPresignedPostFormData(policy));
+
+        // The fields covered by the policy must be sent too
+        formData.put("key", objectName);
+        formData.put("Content-Type", contentType);
+
+        return formData;
+    }
+
+    /**
+     * Get the metadata of an object.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @return The metadata of the object.
+     * @throws MinioException if an error occurs, including if the object does not exist.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public StatObjectResponse statObject(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return minioClient.statObject(
+                StatObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .build());
+    }
+
+    /**
+     * Open a stream on an object, or on a range of it.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param offset: The position of the first byte to read.
+     * @param length: The number of bytes to read, or null to read until the end of the object.
+     * @return The content of the object, which must be closed.
+     * @throws MinioException if an error occurs, including if the object does not exist.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public GetObjectResponse getObject(String bucketName, String objectName, long offset, Long length) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return getObject(bucketName, objectName, offset, length, null);
+    }
+
+    /**
+     * Open a stream on an object, or on a range of it, only if the object still has the given ETag.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectName: The name of the object.
+     * @param offset: The position of the first byte to read.
+     * @param length: The number of bytes to read, or null to read until the end of the object.
+     * @param matchETag: The ETag the object must have, or null to read it whatever its ETag.
+     * @return The content of the object, which must be closed.
+     * @throws MinioException if an error occurs, including if the object does not exist or its ETag changed, with the
+     * "PreconditionFailed" error code.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public GetObjectResponse getObject(String bucketName, String objectName, long offset, Long length, String matchETag) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        GetObjectArgs.Builder getObjectArgs = GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .offset(offset);
+
+        if (length != null) {
+            getObjectArgs.length(length);
+        }
+        if (matchETag != null) {
+            getObjectArgs.matchETag(matchETag);
+        }
+
+        GetObjectResponse getObjectResponse = minioClient.getObject(getObjectArgs.build());
+
+        // Counted when the stream is opened, a client stopping early is counted as if it read everything
+        String contentLength = getObjectResponse.headers().get("Content-Length");
+        if (contentLength != null) {
+            meterRegistry.counter("minio.bytes", "direction", "download").increment(Long.parseLong(contentLength));
+        }
+
+        return getObjectResponse;
+    }
+
+    /**
+     * List the objects of a bucket.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param prefix: Only objects whose name starts with this prefix are listed.
+     * @return The objects, or an empty list if the bucket does not exist.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public List<Item> listObjects(String bucketName, String prefix) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return listObjects(bucketName, prefix, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * List the first objects of a bucket, in name order.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param prefix: Only objects whose name starts with this prefix are listed.
+     * @param maxItems: The maximum number of objects to list.
+     * @param includeUserMetadata: True to list the user metadata of the objects too.
+     * @return The objects, or an empty list if the bucket does not exist.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public List<Item> listObjects(String bucketName, String prefix, int maxItems, boolean includeUserMetadata) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return listObjects(bucketName, prefix, null, maxItems, includeUserMetadata);
+    }
+
+    /**
+     * List the objects of a bucket that come after an object, in name order.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param prefix: Only objects whose name starts with this prefix are listed.
+     * @param startAfter: The name of the last object of the previous page, or null to start from the first object.
+     * @param maxItems: The maximum number of objects to list.
+     * @param includeUserMetadata: True to list the user metadata of the objects too.
+     * @return The objects, or an empty list if the bucket does not exist.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public List<Item> listObjects(String bucketName, String prefix, String startAfter, int maxItems, boolean includeUserMetadata) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        List<Item> items = new ArrayList<>();
+
+        // Results are fetched lazily, one page of at most 1000 objects at a time
+        Iterable<Result<Item>> results = minioClient.listObjects(
+                ListObjectsArgs.builder()
+                        .bucket(bucketName)
+                        .prefix(prefix)
+                        .startAfter(startAfter)
+                        .recursive(true)
+                        .maxKeys(Math.min(maxItems, 1000))
+                        .includeUserMetadata(includeUserMetadata)
+                        .build());
+
+        try {
+            for (Result<Item> result: results) {
+                items.add(result.get());
+
+                if (items.size() >= maxItems) {
+                    break;
+                }
+            }
+        } catch (ErrorResponseException e) {
+            if (!"NoSuchBucket".equals(e.errorResponse().code())) {
+                throw e;
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Concatenate objects into a new private object, server side.
+     * Every source but the last must be at least 5MiB.
+     *
+     * @param bucketName: The name of the bucket of the new object.
+     * @param objectName: The name of the new object.
+     * @param sourceBucketName: The name of the bucket of the sources.
+     * @param sourceObjectNames: The names of the sources, in order.
+     * @param contentType: The content type of the new object.
+     * @throws MinioException if an error occurs.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public void composeObject(String bucketName, String objectName, String sourceBucketName, List<String> sourceObjectNames, String contentType) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        logger.info("Composing " + sourceObjectNames.size() + " objects into " + bucketName + "/" + objectName);
+
+        createBucketIfNotExists(bucketName, false);
+
+        List<ComposeSource> sources = new ArrayList<>(sourceObjectNames.size());
+        for (String sourceObjectName: sourceObjectNames) {
+            sources.add(ComposeSource.builder().bucket(sourceBucketName).object(sourceObjectName).build());
+        }
+
+        ComposeObjectArgs.Builder composeObjectArgs = ComposeObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .sources(sources);
+
+        if (contentType != null) {
+            composeObjectArgs.headers(Map.of("Content-Type", contentType));
+        }
+
+        minioClient.composeObject(composeObjectArgs.build());
+    }
+
+    /**
+     * Remove several objects of a bucket, with one request per thousand objects.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectNames: The names of the objects to remove.
+     * @throws MinioException if an error occurs or if an object could not be removed.
+     * @throws IOException if an I/O error occurs.
+     * @throws NoSuchAlgorithmException if an algorithm is not available.
+     * @throws InvalidKeyException if the key is invalid.
+     */
+    public void removeObjects(String bucketName, List<String> objectNames) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        if (objectNames.isEmpty()) {
+            return;
+        }
+
+        List<DeleteObject> objects = new ArrayList<>(objectNames.size());
+        for (String objectName: objectNames) {
+            objects.add(new DeleteObject(objectName));
+        }
+        invalidatePresignedUrls(bucketName, new HashSet<>(objectNames));
+
+        // The removal is lazy: it only happens while the results are consumed
+        Iterable<Result<DeleteError>> results = minioClient.removeObjects(
+                RemoveObjectsArgs.builder()
+                        .bucket(bucketName)
+                        .objects(objects)
+                        .build());
+
+        for (Result<DeleteError> result: results) {
+            DeleteError error = result.get();
+            logger.error("Error while removing object " + error.objectName() + " from bucket " + bucketName + ": " + error.message());
+            throw new ServerException("Could not remove object " + error.objectName() + ": " + error.message(), 500, null);
+        }
     }
 
     /**
      * Get the private URL of an object in Minio.
+     * The presigned URL is reused until PRESIGNED_URL_SAFETY_MARGIN_SECONDS before it expires.
      *
      * @param bucket: The name of the bucket.
      * @param object: The name of the object.
      * @return The private URL of the object.
      */
     public String getPrivateDocumentUrl(String bucket, String object) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return getPrivateDocumentUrl(bucket, object, null);
+    }
+
+    /**
+     * Get the private URL of an object in Minio, downloaded under another name than its object name.
+     * The presigned URL is reused until PRESIGNED_URL_SAFETY_MARGIN_SECONDS before it expires.
+     *
+     * @param bucket: The name of the bucket.
+     * @param object: The name of the object.
+     * @param downloadName: The file name given to the download, or null to keep the object name.
+     * @return The private URL of the object.
+     */
+    public String getPrivateDocumentUrl(String bucket, String object, String downloadName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
 
         logger.info("Getting the private URL of an object in Minio with bucketName: " + bucket + " and object: " + object);
-        // Générez l'URL de l'objet dans Minio.
-        String url = null;
-//        Map<String, String> reqParams = new HashMap<String, String>();
-//        reqParams.put("response-content-type", "application/json");
-
-            url = minioClient.getPresignedObjectUrl(
-                    GetPresignedObjectUrlArgs.builder()
-                            .method(Method.GET)
-                            .region(MINIO_REGION)
-                            .bucket(bucket)
-                            .object(object)
-//                            .extraHeaders()
-                            .expiry(2, TimeUnit.HOURS)
-                            .build());
+
+        PresignedUrls presignedUrls = presignedUrlCache.get(new ObjectKey(bucket, object), key -> new PresignedUrls());
+        String url = presignedUrls.get(downloadName);
+
+        if (url != null) {
+            presignedUrlHits.increment();
+        } else {
+            presignedUrlMisses.increment();
+
+            GetPresignedObjectUrlArgs.Builder presignedObjectUrlArgs = GetPresignedObjectUrlArgs.builder()
+                    .method(Method.GET)
+                    .region(MINIO_REGION)
+                    .bucket(bucket)
+                    .object(object)
+                    .expiry(PRESIGNED_URL_EXPIRY_SECONDS, TimeUnit.SECONDS);
+
+            if (downloadName != null) {
+                String contentDisposition = ContentDisposition.inline().filename(downloadName, StandardCharsets.UTF_8).build().toString();
+                presignedObjectUrlArgs.extraQueryParams(Map.of("response-content-disposition", contentDisposition));
+            }
+
+            url = minioClient.getPresignedObjectUrl(presignedObjectUrlArgs.build());
+
+            presignedUrls.put(downloadName, url);
+        }
 
         logger.info("Completed getting the private URL of an object in Minio");
 
@@ -258,25 +752,43 @@ public class MinioService {
                 .bucket(bucketName)
                 .object(objectName)
                 .build());
+
+        invalidatePresignedUrls(bucketName, Set.of(objectName));
     }
 
     /**
-     * Check if a document exists and belongs to a company.
-     * @param companyId Company id.
-     * @param objectName Object name.
-     * @return True if the document exists and belongs to the company, false otherwise.
-     * @throws HttpClientErrorException If the document microservice returns an error.
+     * Drop the cached presigned URLs of objects, whatever their download name.
+     *
+     * @param bucketName: The name of the bucket.
+     * @param objectNames: The names of the objects.
      */
-    public boolean documentExistsAndBelongsToCompany(UUID companyId, String objectName) throws HttpClientErrorException {
-        try {
-            minioClient.statObject(
-                    StatObjectArgs.builder()
-                            .bucket(companyId.toString())
-                            .object(objectName)
-                            .build());
-            return true;
-        } catch (Exception e) {
-            return false;
+    private void invalidatePresignedUrls(String bucketName, Set<String> objectNames) {
+        for (String objectName: objectNames) {
+            presignedUrlCache.invalidate(new ObjectKey(bucketName, objectName));
+        }
+    }
+
+    private record ObjectKey(String bucket, String object) {
+    }
+
+    /**
+     * Presigned URLs of an object, without a download name and by download name.
+     */
+    private static class PresignedUrls {
+
+        private volatile String url;
+        private final Map<String, String> downloadNameUrls = new ConcurrentHashMap<>();
+
+        private String get(String downloadName) {
+            return downloadName == null ? url : downloadNameUrls.get(downloadName);
+        }
+
+        private void put(String downloadName, String presignedUrl) {
+            if (downloadName == null) {
+                url = presignedUrl;
+            } else {
+                downloadNameUrls.put(downloadName, presignedUrl);
+            }
         }
     }
 }
@@ -0,0 +1,81 @@
+package fr.polytech.service;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of the request served by the current thread, as a {@link System#nanoTime()} value.
+ * <p>
+ * The deadline is set by {@link fr.polytech.config.RequestDeadlineFilter} and is only visible to the thread serving the
+ * request, so the work handed over to other threads receives it as a parameter. The time left is sent to the other
+ * microservices in the BUDGET_HEADER header, so that they stop working on requests we no longer wait for.
+ */
+public final class RequestDeadline {
+
+    // Time left to answer a request, in milliseconds, received from the caller and sent to the other microservices
+    public static final String BUDGET_HEADER = "X-Request-Budget-Ms";
+
+    private static final long REQUEST_BUDGET_MS = Long.parseLong(Optional.ofNullable(System.getenv("REQUEST_BUDGET_MS")).orElse("5000"));
+
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Compute the deadline of a request from the budget sent by its caller.
+     * A caller cannot give more than REQUEST_BUDGET_MS, which is also the budget of the requests without one.
+     *
+     * @param budgetHeader: the value of the budget header, possibly null.
+     * @return the deadline.
+     */
+    public static long fromBudget(String budgetHeader) {
+        long budgetMs = REQUEST_BUDGET_MS;
+
+        if (budgetHeader != null) {
+            try {
+                budgetMs = Math.max(0, Math.min(REQUEST_BUDGET_MS, Long.parseLong(budgetHeader.trim())));
+            } catch (NumberFormatException e) {
+                // An invalid budget is ignored, the request gets the default one
+            }
+        }
+
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+    }
+
+    /**
+     * Set the deadline of the request served by the current thread.
+     *
+     * @param deadlineNanos: the deadline.
+     */
+    public static void set(long deadlineNanos) {
+        CURRENT.set(deadlineNanos);
+    }
+
+    /**
+     * Forget the deadline of the request served by the current thread.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Get the deadline of the request served by the current thread.
+     *
+     * @return the deadline, or one REQUEST_BUDGET_MS from now outside of a request.
+     */
+    public static long current() {
+        Long deadlineNanos = CURRENT.get();
+        return deadlineNanos != null ? deadlineNanos : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_BUDGET_MS);
+    }
+
+    /**
+     * Get the time left before a deadline.
+     *
+     * @param deadlineNanos: the deadline.
+     * @return the time left, in milliseconds, 0 if the deadline is reached.
+     */
+    public static long remainingMillis(long deadlineNanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+}
@@ -0,0 +1,351 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Company;
+import fr.polytech.model.JobCheckpoint;
+import fr.polytech.repository.CompanyRepository;
+import fr.polytech.repository.JobCheckpointRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
+import io.minio.messages.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Background job finding the differences between the documents and logos listed by the companies and those stored in
+ * Minio, which appear when a request fails between its storage and database steps.
+ * <p>
+ * Each run checks one keyset page of RECONCILER_PAGE_SIZE companies, which bounds the load the job adds to the
+ * database and Minio, then saves its position so that the next run, on any instance, resumes after it. Objects younger
+ * than RECONCILER_GRACE_SECONDS are ignored, as their upload may still be in progress. Differences are only reported,
+ * unless RECONCILER_REPAIR is set:
+ * <ul>
+ *     <li>a listed document whose object is missing is removed from the company,</li>
+ *     <li>a stored document the company does not list is deleted,</li>
+ *     <li>a logo whose object is missing is removed from the company.</li>
+ * </ul>
+ * Every repair reads the company and checks the object again just before acting, as an upload may have happened since
+ * the page was loaded.
+ */
+@Component
+public class StorageReconciler {
+
+    private final Logger logger = LoggerFactory.getLogger(StorageReconciler.class);
+
+    private final String GATEWAY_BASE_URI = Optional.ofNullable(System.getenv("GATEWAY_BASE_URI")).orElse("http://localhost:8090");
+    private final String MINIO_BASE_URI = Optional.ofNullable(System.getenv("MINIO_BASE_URI")).orElse("http://localhost:9000");
+
+    private final boolean RECONCILER_ENABLED = Boolean.parseBoolean(Optional.ofNullable(System.getenv("RECONCILER_ENABLED")).orElse("true"));
+    private final boolean RECONCILER_REPAIR = Boolean.parseBoolean(Optional.ofNullable(System.getenv("RECONCILER_REPAIR")).orElse("false"));
+    private final int RECONCILER_PAGE_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("RECONCILER_PAGE_SIZE")).orElse("20"));
+    private final long RECONCILER_GRACE_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("RECONCILER_GRACE_SECONDS")).orElse("3600"));
+    private final long RECONCILER_LEASE_SECONDS = Long.parseLong(Optional.ofNullable(System.getenv("RECONCILER_LEASE_SECONDS")).orElse("600"));
+
+    private static final String JOB_NAME = "storage-reconciler";
+    private static final UUID MIN_UUID = new UUID(0L, 0L);
+
+    @Autowired
+    private JobCheckpointRepository jobCheckpointRepository;
+
+    @Autowired
+    private CompanyRepository companyRepository;
+
+    @Autowired
+    private CompanyService companyService;
+
+    @Autowired
+    private CompanyDocumentService companyDocumentService;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Check the next page of companies, unless another instance is already doing it.
+     */
+    @Scheduled(fixedDelayString = "${RECONCILER_INTERVAL_MS:60000}", initialDelayString = "${RECONCILER_INITIAL_DELAY_MS:60000}")
+    public void reconcileNextPage() {
+        if (!RECONCILER_ENABLED) {
+            return;
+        }
+
+        Instant now = Instant.now();
+        jobCheckpointRepository.createIfAbsent(JOB_NAME);
+
+        if (jobCheckpointRepository.claim(JOB_NAME, now, now.plusSeconds(RECONCILER_LEASE_SECONDS)) == 0) {
+            return;
+        }
+
+        JobCheckpoint checkpoint = jobCheckpointRepository.findById(JOB_NAME).orElseThrow();
+        UUID afterId = checkpoint.getPosition() == null ? MIN_UUID : UUID.fromString(checkpoint.getPosition());
+
+        List<CompanyStorage> companies = transactionTemplate.execute(status -> loadPage(afterId));
+
+        for (CompanyStorage company: companies) {
+            try {
+                reconcile(company);
+            } catch (Exception e) {
+                logger.error("Error while reconciling the storage of company with id " + company.id() + ": " + e.getMessage());
+            }
+        }
+
+        if (companies.size() < RECONCILER_PAGE_SIZE) {
+            logger.info("Storage reconciliation reached the last company, starting over on the next run");
+            checkpoint.setPosition(null);
+        } else {
+            checkpoint.setPosition(companies.get(companies.size() - 1).id().toString());
+        }
+
+        checkpoint.setLeaseUntil(null);
+        checkpoint.setUpdatedAt(Instant.now());
+        jobCheckpointRepository.save(checkpoint);
+    }
+
+    /**
+     * Load a page of companies and copy what the reconciliation needs, so that it can run outside of a transaction.
+     *
+     * @param afterId: the id of the last company of the previous page.
+     * @return the companies.
+     */
+    private List<CompanyStorage> loadPage(UUID afterId) {
+        List<CompanyStorage> companies = new ArrayList<>();
+
+        for (Company company: companyRepository.findPageOrderedById(afterId, null, null, PageRequest.of(0, RECONCILER_PAGE_SIZE))) {
+            companies.add(new CompanyStorage(company.getId(), company.getLogoUrl(), new ArrayList<>(company.getDocumentsUrl())));
+        }
+
+        return companies;
+    }
+
+    /**
+     * Compare the documents and the logo of a company with its buckets.
+     *
+     * @param company: the company.
+     */
+    private void reconcile(CompanyStorage company) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = companyDocumentService.getBucketName(company.id());
+        String documentUrlPrefix = GATEWAY_BASE_URI + "/" + bucketName + "/";
+
+        Set<String> listedObjectNames = new HashSet<>();
+        for (String documentUrl: company.documentUrls()) {
+            if (documentUrl.startsWith(documentUrlPrefix)) {
+                listedObjectNames.add(documentUrl.substring(documentUrlPrefix.length()));
+            }
+        }
+
+        Instant graceLimit = Instant.now().minus(Duration.ofSeconds(RECONCILER_GRACE_SECONDS));
+        Set<String> storedObjectNames = new HashSet<>();
+        List<String> orphanObjectNames = new ArrayList<>();
+
+        for (Item item: minioService.listObjects(bucketName, "")) {
+            storedObjectNames.add(item.objectName());
+
+            if (!listedObjectNames.contains(item.objectName()) && item.lastModified().toInstant().isBefore(graceLimit)) {
+                orphanObjectNames.add(item.objectName());
+            }
+        }
+
+        List<String> danglingDocumentUrls = new ArrayList<>();
+        for (String objectName: listedObjectNames) {
+            if (!storedObjectNames.contains(objectName)) {
+                danglingDocumentUrls.add(documentUrlPrefix + objectName);
+            }
+        }
+
+        for (String objectName: orphanObjectNames) {
+            report(company.id(), "orphan-object", objectName);
+        }
+
+        if (RECONCILER_REPAIR && !orphanObjectNames.isEmpty()) {
+            repairOrphanObjects(company.id(), documentUrlPrefix, orphanObjectNames, graceLimit);
+        }
+
+        if (!danglingDocumentUrls.isEmpty()) {
+            danglingDocumentUrls.forEach(documentUrl -> report(company.id(), "dangling-document", documentUrl));
+            if (RECONCILER_REPAIR) {
+                repairDanglingDocuments(company.id(), documentUrlPrefix, danglingDocumentUrls);
+            }
+        }
+
+        String logoBucketName = "logo-" + company.id();
+        if ((MINIO_BASE_URI + "/" + logoBucketName + "/" + LogoService.ORIGINAL_OBJECT_NAME).equals(company.logoUrl()) && !objectExists(logoBucketName, LogoService.ORIGINAL_OBJECT_NAME)) {
+            report(company.id(), "missing-logo", company.logoUrl());
+            if (RECONCILER_REPAIR) {
+                repairMissingLogo(company.id(), company.logoUrl(), logoBucketName);
+            }
+        }
+    }
+
+    /**
+     * Remove the dangling documents of a company that are still dangling.
+     * The documents of the company are read again and each object is checked again in the repair transaction, as a
+     * document may have been uploaded again since the page was loaded.
+     *
+     * @param companyId: the id of the company.
+     * @param documentUrlPrefix: the prefix of the URLs of the company's documents.
+     * @param danglingDocumentUrls: the URLs of the documents whose object was missing.
+     */
+    private void repairDanglingDocuments(UUID companyId, String documentUrlPrefix, List<String> danglingDocumentUrls) {
+        String bucketName = companyDocumentService.getBucketName(companyId);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Company storedCompany = companyRepository.findById(companyId).orElse(null);
+            if (storedCompany == null) {
+                return;
+            }
+
+            List<String> stillDanglingDocumentUrls = new ArrayList<>();
+            for (String documentUrl: danglingDocumentUrls) {
+                if (storedCompany.getDocumentsUrl().contains(documentUrl) && !objectExistsOrFail(bucketName, documentUrl.substring(documentUrlPrefix.length()))) {
+                    stillDanglingDocumentUrls.add(documentUrl);
+                } else {
+                    logger.info("Dangling document " + documentUrl + " of company with id " + companyId + " changed since it was listed, keeping it");
+                }
+            }
+
+            if (!stillDanglingDocumentUrls.isEmpty()) {
+                companyService.removeDocumentUrls(companyId, stillDanglingDocumentUrls);
+            }
+        });
+    }
+
+    /**
+     * Remove the logo of a company if it is still missing.
+     * The logo of the company is read again and its object is checked again in the repair transaction, as a logo may
+     * have been uploaded since the page was loaded.
+     *
+     * @param companyId: the id of the company.
+     * @param logoUrl: the URL of the logo whose object was missing.
+     * @param logoBucketName: the bucket of the logo.
+     */
+    private void repairMissingLogo(UUID companyId, String logoUrl, String logoBucketName) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Company storedCompany = companyRepository.findById(companyId).orElse(null);
+            if (storedCompany == null) {
+                return;
+            }
+
+            if (!logoUrl.equals(storedCompany.getLogoUrl()) || objectExistsOrFail(logoBucketName, LogoService.ORIGINAL_OBJECT_NAME)) {
+                logger.info("Missing logo of company with id " + companyId + " changed since it was checked, keeping it");
+                return;
+            }
+
+            storedCompany.setLogoUrl(null);
+            companyService.updateCompany(storedCompany);
+        });
+    }
+
+    /**
+     * Delete the orphan objects of a company that are still orphans.
+     * The documents of the company are read again, and each object is checked again just before it is deleted, as
+     * a document may have been added or uploaded again since the page was loaded.
+     *
+     * @param companyId: the id of the company.
+     * @param documentUrlPrefix: the prefix of the URLs of the company's documents.
+     * @param orphanObjectNames: the names of the objects the company did not list.
+     * @param graceLimit: the objects modified after this instant are kept.
+     */
+    private void repairOrphanObjects(UUID companyId, String documentUrlPrefix, List<String> orphanObjectNames, Instant graceLimit) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String bucketName = companyDocumentService.getBucketName(companyId);
+
+        for (String objectName: orphanObjectNames) {
+            List<String> documentUrls = transactionTemplate.execute(status -> companyRepository.findById(companyId)
+                    .map(storedCompany -> new ArrayList<>(storedCompany.getDocumentsUrl()))
+                    .orElse(null));
+
+            if (documentUrls == null) {
+                // The company was deleted, its buckets are removed by the bucket cleanup
+                return;
+            }
+            if (documentUrls.contains(documentUrlPrefix + objectName)) {
+                logger.info("Orphan object " + objectName + " of company with id " + companyId + " is now listed, keeping it");
+                continue;
+            }
+
+            Instant lastModified = getLastModified(bucketName, objectName);
+            if (lastModified == null || !lastModified.isBefore(graceLimit)) {
+                logger.info("Orphan object " + objectName + " of company with id " + companyId + " changed since it was listed, keeping it");
+                continue;
+            }
+
+            companyDocumentService.deleteDocument(companyId, objectName);
+        }
+    }
+
+    /**
+     * Get when an object was last modified.
+     *
+     * @param bucketName: the name of the bucket.
+     * @param objectName: the name of the object.
+     * @return the instant, or null if the object does not exist.
+     */
+    private Instant getLastModified(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            return minioService.statObject(bucketName, objectName).lastModified().toInstant();
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private boolean objectExists(String bucketName, String objectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            minioService.statObject(bucketName, objectName);
+            return true;
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Check if an object exists, from a transaction callback, which cannot throw the checked exceptions of Minio.
+     * The transaction is rolled back if Minio cannot be reached.
+     */
+    private boolean objectExistsOrFail(String bucketName, String objectName) {
+        try {
+            return objectExists(bucketName, objectName);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("Could not check object " + objectName + " of bucket " + bucketName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void report(UUID companyId, String kind, String target) {
+        logger.warn("Storage reconciliation of company with id " + companyId + " found " + kind + " " + target + (RECONCILER_REPAIR ? ", repairing it" : ""));
+        meterRegistry.counter("storage.reconciler.discrepancies", "kind", kind, "repaired", String.valueOf(RECONCILER_REPAIR)).increment();
+    }
+
+    /**
+     * What the reconciliation needs to know about a company.
+     */
+    private record CompanyStorage(UUID id, String logoUrl, List<String> documentUrls) {
+    }
+}
@@ -0,0 +1,295 @@
+package fr.polytech.service;
+
+import fr.polytech.model.UploadSession;
+import fr.polytech.model.UploadSessionDTO;
+import fr.polytech.repository.UploadSessionRepository;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.MinioException;
+import io.minio.messages.Item;
+import jakarta.ws.rs.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Service to upload large documents in numbered chunks, which can be sent in any order, in parallel and retried.
+ * <p>
+ * Each chunk is stored as its own object of the private upload sessions bucket. Completing a session composes the
+ * chunks server side into the final document, the same way Minio assembles a multipart upload. The bytes received by
+ * a session are counted on its row before each chunk is stored, so that a session never holds more than
+ * UPLOAD_SESSION_MAX_SIZE bytes. Chunks and sessions older than UPLOAD_SESSION_TTL_HOURS are removed periodically.
+ */
+@Service
+public class UploadSessionService {
+
+    private final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    private final String UPLOAD_SESSION_BUCKET = Optional.ofNullable(System.getenv("UPLOAD_SESSION_BUCKET")).orElse("upload-sessions");
+    private final long UPLOAD_SESSION_TTL_HOURS = Long.parseLong(Optional.ofNullable(System.getenv("UPLOAD_SESSION_TTL_HOURS")).orElse("24"));
+    private final long UPLOAD_SESSION_MAX_SIZE = Long.parseLong(Optional.ofNullable(System.getenv("UPLOAD_SESSION_MAX_SIZE")).orElse(String.valueOf(1024L * 1024 * 1024)));
+
+    // Limits of the server side composition: every chunk but the last must be at least 5MiB, and at most 10000 chunks
+    public static final long MIN_CHUNK_SIZE = 5L * 1024 * 1024;
+    public static final int MAX_CHUNK_NUMBER = 10000;
+
+    // No document of UPLOAD_SESSION_MAX_SIZE bytes or less has more chunks than this
+    private final int SESSION_MAX_CHUNK_NUMBER = (int) Math.min(MAX_CHUNK_NUMBER, (UPLOAD_SESSION_MAX_SIZE + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+
+    private final int UPLOAD_SESSION_CLEANUP_PAGE_SIZE = Integer.parseInt(Optional.ofNullable(System.getenv("UPLOAD_SESSION_CLEANUP_PAGE_SIZE")).orElse("1000"));
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private CompanyService companyService;
+
+    @Autowired
+    private CompanyDocumentService companyDocumentService;
+
+    /**
+     * Start an upload session for a document of a company.
+     *
+     * @param companyId: the id of the company.
+     * @param objectName: the name of the document.
+     * @param contentType: the content type of the document.
+     * @return the new session.
+     * @throws NotFoundException if the company was not found.
+     */
+    public UploadSessionDTO createSession(UUID companyId, String objectName, String contentType) throws NotFoundException {
+        companyService.getCompanyById(companyId);
+
+        UploadSession uploadSession = new UploadSession();
+        uploadSession.setCompanyId(companyId);
+        uploadSession.setObjectName(objectName);
+        uploadSession.setContentType(contentType);
+        uploadSession.setCreatedAt(Instant.now());
+
+        uploadSession = uploadSessionRepository.save(uploadSession);
+        logger.info("Created upload session " + uploadSession.getId() + " for company with id " + companyId);
+
+        return toDTO(uploadSession, new TreeMap<>());
+    }
+
+    /**
+     * Get an upload session and the chunks it already received.
+     *
+     * @param companyId: the id of the company.
+     * @param sessionId: the id of the session.
+     * @return the session.
+     * @throws NotFoundException if the session was not found.
+     */
+    public UploadSessionDTO getSession(UUID companyId, UUID sessionId) throws NotFoundException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        UploadSession uploadSession = findSession(companyId, sessionId);
+        return toDTO(uploadSession, getReceivedChunks(sessionId));
+    }
+
+    /**
+     * Store a chunk of an upload session, replacing any previous upload of the same chunk.
+     * The size of the chunk is counted on the session before it is stored, and the size of the chunk it replaces is
+     * only given back once it is replaced.
+     *
+     * @param companyId: the id of the company.
+     * @param sessionId: the id of the session.
+     * @param chunkNumber: the number of the chunk, starting at 1.
+     * @param inputStream: the content of the chunk.
+     * @param size: the size of the chunk.
+     * @throws NotFoundException if the session was not found.
+     * @throws IllegalArgumentException if the chunk number is out of range or the session would exceed its size limit.
+     */
+    public void uploadChunk(UUID companyId, UUID sessionId, int chunkNumber, InputStream inputStream, long size) throws NotFoundException, IllegalArgumentException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        if (chunkNumber < 1 || chunkNumber > SESSION_MAX_CHUNK_NUMBER) {
+            throw new IllegalArgumentException("Chunk number must be between 1 and " + SESSION_MAX_CHUNK_NUMBER);
+        }
+
+        findSession(companyId, sessionId);
+
+        String chunkObjectName = chunkObjectName(sessionId, chunkNumber);
+        long replacedSize = getChunkSize(chunkObjectName);
+
+        if (uploadSessionRepository.reserveReceivedSize(sessionId, size, UPLOAD_SESSION_MAX_SIZE) == 0) {
+            throw new IllegalArgumentException("Upload session would exceed " + UPLOAD_SESSION_MAX_SIZE + " bytes");
+        }
+
+        try {
+            minioService.uploadStream(UPLOAD_SESSION_BUCKET, chunkObjectName, inputStream, size, null, false);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+            uploadSessionRepository.releaseReceivedSize(sessionId, size);
+            throw e;
+        }
+
+        if (replacedSize > 0) {
+            uploadSessionRepository.releaseReceivedSize(sessionId, replacedSize);
+        }
+    }
+
+    /**
+     * Assemble the chunks of an upload session into the document, and add the document to the company.
+     *
+     * @param companyId: the id of the company.
+     * @param sessionId: the id of the session.
+     * @return the URL of the document.
+     * @throws NotFoundException if the session or the company was not found.
+     * @throws IllegalArgumentException if chunks are missing or too small.
+     */
+    public String completeSession(UUID companyId, UUID sessionId) throws NotFoundException, IllegalArgumentException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        UploadSession uploadSession = findSession(companyId, sessionId);
+        SortedMap<Integer, Long> receivedChunks = getReceivedChunks(sessionId);
+
+        if (receivedChunks.isEmpty() || receivedChunks.lastKey() != receivedChunks.size()) {
+            throw new IllegalArgumentException("Chunks must be numbered from 1 without gaps");
+        }
+
+        long totalSize = 0;
+        List<String> chunkObjectNames = new ArrayList<>(receivedChunks.size());
+
+        for (Map.Entry<Integer, Long> chunk: receivedChunks.entrySet()) {
+            if (chunk.getKey() != receivedChunks.size() && chunk.getValue() < MIN_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Chunk " + chunk.getKey() + " is smaller than " + MIN_CHUNK_SIZE + " bytes");
+            }
+            totalSize += chunk.getValue();
+            chunkObjectNames.add(chunkObjectName(sessionId, chunk.getKey()));
+        }
+
+        if (totalSize > UPLOAD_SESSION_MAX_SIZE) {
+            throw new IllegalArgumentException("Document is larger than " + UPLOAD_SESSION_MAX_SIZE + " bytes");
+        }
+
+        String documentUrl = companyDocumentService.composeDocument(companyId, uploadSession.getObjectName(), UPLOAD_SESSION_BUCKET, chunkObjectNames, uploadSession.getContentType());
+        companyService.addDocumentUrls(companyId, List.of(documentUrl));
+
+        abortSession(companyId, sessionId);
+        logger.info("Completed upload session " + sessionId + " of " + totalSize + " bytes");
+
+        return documentUrl;
+    }
+
+    /**
+     * Abort an upload session and remove its chunks.
+     *
+     * @param companyId: the id of the company.
+     * @param sessionId: the id of the session.
+     * @throws NotFoundException if the session was not found.
+     */
+    public void abortSession(UUID companyId, UUID sessionId) throws NotFoundException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        findSession(companyId, sessionId);
+
+        List<String> chunkObjectNames = new ArrayList<>();
+        for (Item item: minioService.listObjects(UPLOAD_SESSION_BUCKET, sessionId + "/")) {
+            chunkObjectNames.add(item.objectName());
+        }
+
+        minioService.removeObjects(UPLOAD_SESSION_BUCKET, chunkObjectNames);
+        uploadSessionRepository.deleteById(sessionId);
+    }
+
+    /**
+     * Remove the expired sessions, and every chunk older than the session TTL, including chunks of sessions lost
+     * before they could be removed. The bucket is listed and cleaned by pages of UPLOAD_SESSION_CLEANUP_PAGE_SIZE
+     * objects.
+     */
+    @Scheduled(fixedDelayString = "${UPLOAD_SESSION_CLEANUP_MS:3600000}")
+    public void removeExpiredSessions() {
+        Instant expiredBefore = Instant.now().minus(Duration.ofHours(UPLOAD_SESSION_TTL_HOURS));
+
+        try {
+            long removedChunks = 0;
+            String startAfter = null;
+            List<Item> items;
+
+            while (!(items = minioService.listObjects(UPLOAD_SESSION_BUCKET, "", startAfter, UPLOAD_SESSION_CLEANUP_PAGE_SIZE, false)).isEmpty()) {
+                List<String> expiredChunkObjectNames = new ArrayList<>();
+                for (Item item: items) {
+                    if (item.lastModified().toInstant().isBefore(expiredBefore)) {
+                        expiredChunkObjectNames.add(item.objectName());
+                    }
+                }
+
+                minioService.removeObjects(UPLOAD_SESSION_BUCKET, expiredChunkObjectNames);
+                removedChunks += expiredChunkObjectNames.size();
+                startAfter = items.get(items.size() - 1).objectName();
+            }
+
+            List<UploadSession> expiredSessions = uploadSessionRepository.findByCreatedAtBefore(expiredBefore);
+            uploadSessionRepository.deleteAll(expiredSessions);
+
+            logger.info("Removed " + expiredSessions.size() + " expired upload sessions and " + removedChunks + " chunks");
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Error while removing expired upload sessions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get an upload session of a company.
+     *
+     * @param companyId: the id of the company.
+     * @param sessionId: the id of the session.
+     * @return the session.
+     * @throws NotFoundException if the session was not found or belongs to another company.
+     */
+    private UploadSession findSession(UUID companyId, UUID sessionId) throws NotFoundException {
+        UploadSession uploadSession = uploadSessionRepository.findById(sessionId).orElse(null);
+
+        if (uploadSession == null || !uploadSession.getCompanyId().equals(companyId)) {
+            throw new NotFoundException("Upload session not found");
+        }
+
+        return uploadSession;
+    }
+
+    /**
+     * Get the chunks received by an upload session.
+     *
+     * @param sessionId: the id of the session.
+     * @return the size of each received chunk, by chunk number.
+     */
+    private SortedMap<Integer, Long> getReceivedChunks(UUID sessionId) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        SortedMap<Integer, Long> receivedChunks = new TreeMap<>();
+        String prefix = sessionId + "/";
+
+        for (Item item: minioService.listObjects(UPLOAD_SESSION_BUCKET, prefix)) {
+            receivedChunks.put(Integer.parseInt(item.objectName().substring(prefix.length())), item.size());
+        }
+
+        return receivedChunks;
+    }
+
+    /**
+     * Get the size of a stored chunk.
+     *
+     * @param chunkObjectName: the name of the chunk object.
+     * @return the size of the chunk, or 0 if it was not stored.
+     */
+    private long getChunkSize(String chunkObjectName) throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            return minioService.statObject(UPLOAD_SESSION_BUCKET, chunkObjectName).size();
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if ("NoSuchKey".equals(code) || "NoSuchBucket".equals(code)) {
+                return 0;
+            }
+            throw e;
+        }
+    }
+
+    private String chunkObjectName(UUID sessionId, int chunkNumber) {
+        return sessionId + "/" + String.format("%05d", chunkNumber);
+    }
+
+    private UploadSessionDTO toDTO(UploadSession uploadSession, Map<Integer, Long> receivedChunks) {
+        Instant expiresAt = uploadSession.getCreatedAt().plus(Duration.ofHours(UPLOAD_SESSION_TTL_HOURS));
+        return new UploadSessionDTO(uploadSession.getId(), uploadSession.getObjectName(), MIN_CHUNK_SIZE, expiresAt, receivedChunks);
+    }
+}
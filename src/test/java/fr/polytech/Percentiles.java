@@ -0,0 +1,29 @@
+package fr.polytech;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency percentiles of a benchmark run.
+ */
+public final class Percentiles {
+
+    private Percentiles() {
+    }
+
+    /**
+     * Get a percentile of latencies, with the nearest-rank method.
+     *
+     * @param latenciesNanos: the latencies, in nanoseconds, sorted in place.
+     * @param percentile: the percentile, between 0 and 100.
+     * @return the percentile, in milliseconds.
+     */
+    public static double millis(long[] latenciesNanos, double percentile) {
+        Arrays.sort(latenciesNanos);
+
+        int rank = (int) Math.ceil(percentile / 100 * latenciesNanos.length);
+        long latencyNanos = latenciesNanos[Math.max(0, Math.min(latenciesNanos.length - 1, rank - 1))];
+
+        return latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,132 @@
+package fr.polytech;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the address microservice, answering every address id after a fixed latency, so that the
+ * benchmarks run without the other microservices.
+ * <p>
+ * It serves GET {@value #BASE_PATH}/{id} and, unless disabled, POST {@value #BASE_PATH}/batch with a JSON array of ids.
+ */
+public class StubAddressApi implements AutoCloseable {
+
+    public static final String BASE_PATH = "/api/v1/address";
+
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMs;
+    private final boolean batchEnabled;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Start the stub on a free local port.
+     *
+     * @param latencyMs: the time each request takes, in milliseconds.
+     * @param batchEnabled: false to answer 404 to the batch endpoint, as an address microservice without it does.
+     * @param threads: the number of requests served at the same time.
+     * @throws IOException if the stub could not be started.
+     */
+    public StubAddressApi(long latencyMs, boolean batchEnabled, int threads) throws IOException {
+        this.latencyMs = latencyMs;
+        this.batchEnabled = batchEnabled;
+        this.executor = Executors.newFixedThreadPool(threads);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Get the base URI of the address endpoints, to use as ADDRESS_API_URI.
+     *
+     * @return the URI.
+     */
+    public String getUri() {
+        return "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /**
+     * Get the number of requests served since the stub started.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+
+        try (exchange) {
+            byte[] requestBody = exchange.getRequestBody().readAllBytes();
+            sleep();
+
+            String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+
+            if (path.equals("/batch") && "POST".equals(exchange.getRequestMethod())) {
+                if (!batchEnabled) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                List<String> addresses = new ArrayList<>();
+                Matcher matcher = UUID_PATTERN.matcher(new String(requestBody, StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    addresses.add(address(matcher.group()));
+                }
+                respond(exchange, "[" + String.join(",", addresses) + "]");
+            } else if (path.startsWith("/") && UUID_PATTERN.matcher(path.substring(1)).matches()) {
+                respond(exchange, address(UUID.fromString(path.substring(1)).toString()));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private String address(String id) {
+        return "{\"id\":\"" + id + "\",\"street\":\"Route des Colles\",\"number\":\"930\",\"city\":\"Biot\",\"zipCode\":\"06410\",\"country\":\"France\"}";
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
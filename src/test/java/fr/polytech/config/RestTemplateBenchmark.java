@@ -0,0 +1,118 @@
+package fr.polytech.config;
+
+import fr.polytech.Percentiles;
+import fr.polytech.StubAddressApi;
+import fr.polytech.model.AddressDTO;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Throughput of the pooled request factory of {@link RestTemplateConfig} against the default one opening a
+ * HttpURLConnection per request, with CLIENT_THREADS threads calling a local stub of the address microservice that
+ * answers in STUB_LATENCY_MS.
+ * <p>
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+class RestTemplateBenchmark {
+
+    private static final long STUB_LATENCY_MS = 5;
+    private static final int CLIENT_THREADS = 32;
+    private static final long WARMUP_MS = 2000;
+    private static final long DURATION_MS = 10000;
+
+    private StubAddressApi stubAddressApi;
+    private ExecutorService clientExecutor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stubAddressApi = new StubAddressApi(STUB_LATENCY_MS, true, 2 * CLIENT_THREADS);
+        clientExecutor = Executors.newFixedThreadPool(CLIENT_THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clientExecutor.shutdownNow();
+        stubAddressApi.close();
+    }
+
+    @Test
+    void simpleRequestFactoryThroughput() throws Exception {
+        run("simple request factory", new RestTemplate());
+    }
+
+    @Test
+    void pooledRequestFactoryThroughput() throws Exception {
+        RestTemplateConfig restTemplateConfig = new RestTemplateConfig();
+
+        try (PoolingHttpClientConnectionManager connectionManager = restTemplateConfig.httpClientConnectionManager();
+             CloseableHttpClient httpClient = restTemplateConfig.httpClient(connectionManager)) {
+            run("pooled request factory", new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)));
+        }
+    }
+
+    private void run(String name, RestTemplate restTemplate) throws Exception {
+        callFor(restTemplate, WARMUP_MS);
+
+        long requestCountBefore = stubAddressApi.getRequestCount();
+        long[] latenciesNanos = callFor(restTemplate, DURATION_MS);
+        assertEquals(latenciesNanos.length, stubAddressApi.getRequestCount() - requestCountBefore);
+
+        System.out.printf("%n%s, %d threads, stub latency %dms%n", name, CLIENT_THREADS, STUB_LATENCY_MS);
+        System.out.printf("%10s %10s %10s %10s%n", "req/s", "p50 (ms)", "p99 (ms)", "max (ms)");
+        System.out.printf("%10.0f %10.1f %10.1f %10.1f%n", latenciesNanos.length * 1000.0 / DURATION_MS,
+                Percentiles.millis(latenciesNanos, 50), Percentiles.millis(latenciesNanos, 99), Percentiles.millis(latenciesNanos, 100));
+    }
+
+    /**
+     * Call the single address endpoint from every client thread until the duration elapses.
+     *
+     * @return the latency of every call, in nanoseconds.
+     */
+    private long[] callFor(RestTemplate restTemplate, long durationMs) throws Exception {
+        long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+
+        Callable<List<Long>> client = () -> {
+            List<Long> latencies = new ArrayList<>();
+
+            while (System.nanoTime() < endNanos) {
+                UUID addressId = UUID.randomUUID();
+
+                long start = System.nanoTime();
+                AddressDTO address = restTemplate.getForObject(stubAddressApi.getUri() + "/" + addressId, AddressDTO.class);
+                latencies.add(System.nanoTime() - start);
+
+                assertEquals(addressId, address.getId());
+            }
+
+            return latencies;
+        };
+
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            futures.add(clientExecutor.submit(client));
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<List<Long>> future: futures) {
+            latencies.addAll(future.get());
+        }
+
+        return latencies.stream().mapToLong(Long::longValue).toArray();
+    }
+}
@@ -0,0 +1,52 @@
+package fr.polytech.restcontroller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ByteRangeTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    void closedRange() {
+        assertArrayEquals(new long[] { 0, 499 }, CompanyController.parseByteRange("bytes=0-499", SIZE));
+    }
+
+    @Test
+    void openRangeEndsAtTheLastByte() {
+        assertArrayEquals(new long[] { 500, 999 }, CompanyController.parseByteRange("bytes=500-", SIZE));
+    }
+
+    @Test
+    void endIsCappedToTheSize() {
+        assertArrayEquals(new long[] { 900, 999 }, CompanyController.parseByteRange("bytes=900-5000", SIZE));
+    }
+
+    @Test
+    void suffixRange() {
+        assertArrayEquals(new long[] { 900, 999 }, CompanyController.parseByteRange("bytes=-100", SIZE));
+    }
+
+    @Test
+    void suffixLargerThanTheSizeIsTheWholeDocument() {
+        assertArrayEquals(new long[] { 0, 999 }, CompanyController.parseByteRange("bytes=-5000", SIZE));
+    }
+
+    @Test
+    void rangesOutsideTheDocumentAreNotSatisfiable() {
+        assertArrayEquals(new long[0], CompanyController.parseByteRange("bytes=1000-", SIZE));
+        assertArrayEquals(new long[0], CompanyController.parseByteRange("bytes=500-400", SIZE));
+        assertArrayEquals(new long[0], CompanyController.parseByteRange("bytes=-0", SIZE));
+        assertArrayEquals(new long[0], CompanyController.parseByteRange("bytes=0-", 0));
+    }
+
+    @Test
+    void unsupportedRangesAreIgnored() {
+        assertNull(CompanyController.parseByteRange("items=0-10", SIZE));
+        assertNull(CompanyController.parseByteRange("bytes=0-10,20-30", SIZE));
+        assertNull(CompanyController.parseByteRange("bytes=abc-", SIZE));
+        assertNull(CompanyController.parseByteRange("bytes=10", SIZE));
+    }
+}
@@ -0,0 +1,133 @@
+package fr.polytech.restcontroller;
+
+import fr.polytech.repository.DocumentBlobRepository;
+import fr.polytech.service.CompanyDocumentService;
+import fr.polytech.service.CompanyService;
+import fr.polytech.service.DocumentBlobService;
+import fr.polytech.service.LogoService;
+import fr.polytech.service.MinioService;
+import fr.polytech.service.UploadSessionService;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that the documents endpoints guarded by {@link fr.polytech.annotation.IsRecruiterInCompanyOrAdminAndDocumentExistsAndBelongsToCompany}
+ * let a member of the company reach the documents stored in the "documents-{id}" bucket of the company, and only those.
+ */
+@SpringJUnitConfig(DocumentAccessTest.Config.class)
+class DocumentAccessTest {
+
+    private static final UUID COMPANY_ID = UUID.randomUUID();
+    private static final String OBJECT_NAME = "contract.pdf";
+
+    @Autowired
+    private CompanyController companyController;
+
+    @MockBean
+    private CompanyService companyService;
+
+    @MockBean
+    private MinioService minioService;
+
+    // Other dependencies of the controller and of the document service
+    @MockBean
+    private UploadSessionService uploadSessionService;
+
+    @MockBean
+    private LogoService logoService;
+
+    @MockBean
+    private DocumentBlobService documentBlobService;
+
+    @MockBean
+    private DocumentBlobRepository documentBlobRepository;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(companyService.isUserMemberOfCompany(eq(COMPANY_ID), any())).thenReturn(true);
+        when(minioService.statObject(anyString(), anyString())).thenThrow(new ErrorResponseException(
+                new ErrorResponse("NoSuchKey", "Object does not exist", null, null, null, null, null), null, null));
+        when(minioService.getPrivateDocumentUrl("documents-" + COMPANY_ID, OBJECT_NAME)).thenReturn("http://minio/documents-" + COMPANY_ID + "/" + OBJECT_NAME);
+
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("recruiter", null, "ROLE_client_recruiter"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void documentOfTheCompanyIsReachable() throws Exception {
+        doReturn(mock(StatObjectResponse.class)).when(minioService).statObject("documents-" + COMPANY_ID, OBJECT_NAME);
+
+        ResponseEntity<String> response = companyController.getDocument(COMPANY_ID, OBJECT_NAME);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("http://minio/documents-" + COMPANY_ID + "/" + OBJECT_NAME, response.getBody());
+    }
+
+    @Test
+    void missingDocumentIsDenied() {
+        assertThrows(AccessDeniedException.class, () -> companyController.getDocument(COMPANY_ID, OBJECT_NAME));
+    }
+
+    @Test
+    void documentOfAnotherBucketIsDenied() throws Exception {
+        doReturn(mock(StatObjectResponse.class)).when(minioService).statObject(COMPANY_ID.toString(), OBJECT_NAME);
+
+        assertThrows(AccessDeniedException.class, () -> companyController.getDocument(COMPANY_ID, OBJECT_NAME));
+    }
+
+    @Configuration
+    @EnableMethodSecurity
+    static class Config {
+
+        @Bean
+        CompanyController companyController() {
+            return new CompanyController();
+        }
+
+        @Bean
+        CompanyDocumentService companyDocumentService() {
+            return new CompanyDocumentService();
+        }
+
+        @Bean(destroyMethod = "shutdownNow")
+        ExecutorService storageExecutor() {
+            return Executors.newSingleThreadExecutor();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package fr.polytech.service;
+
+import fr.polytech.config.ResilienceConfig;
+import fr.polytech.model.AddressDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks how the address lookups are grouped into batches, with the default ADDRESS_BATCH_MAX_SIZE of 50.
+ * The window is widened so that the lookups registered one after the other always fall in the same batch.
+ */
+class AddressBatchResolverTest {
+
+    private static final long DEADLINE_NANOS = Long.MAX_VALUE;
+
+    private final HedgedCaller hedgedCaller = mock(HedgedCaller.class);
+    private final ExecutorService addressLookupExecutor = Executors.newFixedThreadPool(4);
+    private final ScheduledExecutorService addressBatchScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Ids and token of each batch sent to the address microservice
+    private final List<List<UUID>> sentBatches = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> sentTokens = Collections.synchronizedList(new ArrayList<>());
+
+    private AddressBatchResolver addressBatchResolver;
+
+    @BeforeEach
+    void setUp() {
+        addressBatchResolver = new AddressBatchResolver();
+        ReflectionTestUtils.setField(addressBatchResolver, "hedgedCaller", hedgedCaller);
+        ReflectionTestUtils.setField(addressBatchResolver, "addressLookupExecutor", addressLookupExecutor);
+        ReflectionTestUtils.setField(addressBatchResolver, "addressBatchScheduler", addressBatchScheduler);
+        ReflectionTestUtils.setField(addressBatchResolver, "ADDRESS_BATCH_WINDOW_MS", 200L);
+
+        when(hedgedCaller.exchange(eq(ResilienceConfig.ADDRESS_API), anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(AddressDTO[].class), anyLong()))
+                .thenAnswer(invocation -> {
+                    HttpEntity<?> requestEntity = invocation.getArgument(3);
+                    String token = requestEntity.getHeaders().getFirst("Authorization").substring("Bearer ".length());
+
+                    @SuppressWarnings("unchecked")
+                    List<UUID> addressIdList = (List<UUID>) requestEntity.getBody();
+                    sentBatches.add(addressIdList);
+                    sentTokens.add(token);
+
+                    if (token.startsWith("expired")) {
+                        throw HttpClientErrorException.create(HttpStatus.UNAUTHORIZED, "Unauthorized", null, null, null);
+                    }
+
+                    return ResponseEntity.ok(addressIdList.stream().map(this::address).toArray(AddressDTO[]::new));
+                });
+    }
+
+    @AfterEach
+    void tearDown() {
+        addressLookupExecutor.shutdownNow();
+        addressBatchScheduler.shutdownNow();
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        List<UUID> addressIdList = randomIds(120);
+
+        Map<UUID, CompletableFuture<AddressDTO>> futures = addressBatchResolver.resolve(addressIdList, "token", DEADLINE_NANOS);
+        awaitAll(futures);
+
+        assertEquals(List.of(50, 50, 20), sentBatches.stream().map(List::size).toList());
+        for (UUID addressId: addressIdList) {
+            assertEquals(addressId, futures.get(addressId).get().getId());
+        }
+    }
+
+    @Test
+    void partialBatchIsSentWhenTheWindowElapses() throws Exception {
+        Map<UUID, CompletableFuture<AddressDTO>> futures = addressBatchResolver.resolve(randomIds(3), "token", DEADLINE_NANOS);
+        awaitAll(futures);
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(3, sentBatches.get(0).size());
+    }
+
+    @Test
+    void concurrentCallersShareOneBatchAndTheirCommonIds() throws Exception {
+        UUID sharedId = UUID.randomUUID();
+
+        Map<UUID, CompletableFuture<AddressDTO>> firstFutures = addressBatchResolver.resolve(List.of(sharedId, UUID.randomUUID()), "first-token", DEADLINE_NANOS);
+        Map<UUID, CompletableFuture<AddressDTO>> secondFutures = addressBatchResolver.resolve(List.of(sharedId, UUID.randomUUID()), "second-token", DEADLINE_NANOS);
+        awaitAll(firstFutures);
+        awaitAll(secondFutures);
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(3, sentBatches.get(0).size());
+        assertEquals(List.of("first-token"), sentTokens);
+        assertSame(firstFutures.get(sharedId), secondFutures.get(sharedId));
+    }
+
+    @Test
+    void rejectedTokenIsReplacedByTheTokenOfAnotherCaller() throws Exception {
+        Map<UUID, CompletableFuture<AddressDTO>> firstFutures = addressBatchResolver.resolve(randomIds(1), "expired-token", DEADLINE_NANOS);
+        Map<UUID, CompletableFuture<AddressDTO>> secondFutures = addressBatchResolver.resolve(randomIds(1), "valid-token", DEADLINE_NANOS);
+        awaitAll(firstFutures);
+        awaitAll(secondFutures);
+
+        assertEquals(List.of("expired-token", "valid-token"), sentTokens);
+    }
+
+    @Test
+    void rejectedTokenIsReplacedInTheSingleLookupsOfTheFallback() throws Exception {
+        ReflectionTestUtils.setField(addressBatchResolver, "batchEndpointAvailable", false);
+
+        when(hedgedCaller.exchange(eq(ResilienceConfig.ADDRESS_API), anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(AddressDTO.class), anyLong()))
+                .thenAnswer(invocation -> {
+                    String uri = invocation.getArgument(1);
+                    HttpEntity<?> requestEntity = invocation.getArgument(3);
+                    String token = requestEntity.getHeaders().getFirst("Authorization").substring("Bearer ".length());
+                    sentTokens.add(token);
+
+                    if (token.startsWith("expired")) {
+                        throw HttpClientErrorException.create(HttpStatus.UNAUTHORIZED, "Unauthorized", null, null, null);
+                    }
+
+                    return ResponseEntity.ok(address(UUID.fromString(uri.substring(uri.lastIndexOf('/') + 1))));
+                });
+
+        List<UUID> firstIds = randomIds(3);
+        List<UUID> secondIds = randomIds(3);
+        Map<UUID, CompletableFuture<AddressDTO>> firstFutures = addressBatchResolver.resolve(firstIds, "expired-token", DEADLINE_NANOS);
+        Map<UUID, CompletableFuture<AddressDTO>> secondFutures = addressBatchResolver.resolve(secondIds, "valid-token", DEADLINE_NANOS);
+        awaitAll(firstFutures);
+        awaitAll(secondFutures);
+
+        for (UUID addressId: firstIds) {
+            assertEquals(addressId, firstFutures.get(addressId).get().getId());
+        }
+        for (UUID addressId: secondIds) {
+            assertEquals(addressId, secondFutures.get(addressId).get().getId());
+        }
+        assertTrue(sentBatches.isEmpty());
+        assertEquals(6, sentTokens.stream().filter("valid-token"::equals).count());
+    }
+
+    private void awaitAll(Map<UUID, CompletableFuture<AddressDTO>> futures) throws Exception {
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+    }
+
+    private List<UUID> randomIds(int count) {
+        List<UUID> addressIdList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            addressIdList.add(UUID.randomUUID());
+        }
+        return addressIdList;
+    }
+
+    private AddressDTO address(UUID addressId) {
+        AddressDTO addressDTO = new AddressDTO("street", "1", "city", "00000", "country");
+        addressDTO.setId(addressId);
+        return addressDTO;
+    }
+}
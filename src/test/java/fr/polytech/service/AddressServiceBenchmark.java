@@ -0,0 +1,141 @@
+package fr.polytech.service;
+
+import fr.polytech.Percentiles;
+import fr.polytech.StubAddressApi;
+import fr.polytech.model.AddressDTO;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Latency of the address lookups of a company as its number of addresses grows, against a local stub of the address
+ * microservice answering each request in STUB_LATENCY_MS.
+ * <p>
+ * The lookups are run once through the batch endpoint, and once through single lookups fanned out on the address
+ * lookup executor, as with an address microservice without the batch endpoint. Every iteration asks for new ids so
+ * that the address cache never answers. Run with {@code mvn test -Pbenchmark}.
+ */
+class AddressServiceBenchmark {
+
+    private static final long STUB_LATENCY_MS = 20;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+    private static final int[] ADDRESS_COUNTS = { 1, 10, 40, 80 };
+
+    @ParameterizedTest(name = "batch endpoint available: {0}")
+    @ValueSource(booleans = { true, false })
+    void addressLookupLatency(boolean batchEnabled) throws Exception {
+        ExecutorService addressLookupExecutor = Executors.newFixedThreadPool(16);
+        ExecutorService outboundCallExecutor = Executors.newFixedThreadPool(48);
+        ScheduledExecutorService addressBatchScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        try (StubAddressApi stubAddressApi = new StubAddressApi(STUB_LATENCY_MS, batchEnabled, 64);
+             CloseableHttpClient httpClient = pooledHttpClient()) {
+            AddressService addressService = addressService(stubAddressApi.getUri(), batchEnabled, new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)),
+                    addressLookupExecutor, outboundCallExecutor, addressBatchScheduler);
+
+            System.out.printf("%nAddress lookups, stub latency %dms, batch endpoint %s%n", STUB_LATENCY_MS, batchEnabled ? "available" : "unavailable");
+            System.out.printf("%10s %10s %10s %10s%n", "addresses", "p50 (ms)", "p99 (ms)", "max (ms)");
+
+            for (int addressCount: ADDRESS_COUNTS) {
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    lookup(addressService, addressCount);
+                }
+
+                long[] latenciesNanos = new long[ITERATIONS];
+                for (int i = 0; i < ITERATIONS; i++) {
+                    latenciesNanos[i] = lookup(addressService, addressCount);
+                }
+
+                System.out.printf("%10d %10.1f %10.1f %10.1f%n", addressCount,
+                        Percentiles.millis(latenciesNanos, 50), Percentiles.millis(latenciesNanos, 99), Percentiles.millis(latenciesNanos, 100));
+            }
+        } finally {
+            addressLookupExecutor.shutdownNow();
+            outboundCallExecutor.shutdownNow();
+            addressBatchScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Look up new addresses, as the detailed company endpoint does.
+     *
+     * @return the latency of the lookup, in nanoseconds.
+     */
+    private long lookup(AddressService addressService, int addressCount) {
+        List<UUID> addressIdList = new ArrayList<>(addressCount);
+        for (int i = 0; i < addressCount; i++) {
+            addressIdList.add(UUID.randomUUID());
+        }
+
+        long start = System.nanoTime();
+        List<AddressDTO> addresses = addressService.getAddressList(addressIdList, "token");
+        long latencyNanos = System.nanoTime() - start;
+
+        assertEquals(addressIdList, addresses.stream().map(AddressDTO::getId).toList());
+        return latencyNanos;
+    }
+
+    /**
+     * Wire the address lookups as the application context does, without the discovery of the other microservices.
+     */
+    private AddressService addressService(String addressApiUri, boolean batchEnabled, RestTemplate restTemplate, ExecutorService addressLookupExecutor,
+                                          ExecutorService outboundCallExecutor, ScheduledExecutorService addressBatchScheduler) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        DownstreamGuard downstreamGuard = new DownstreamGuard();
+        ReflectionTestUtils.setField(downstreamGuard, "circuitBreakerRegistry", CircuitBreakerRegistry.ofDefaults());
+        ReflectionTestUtils.setField(downstreamGuard, "bulkheadRegistry", BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(32)
+                .maxWaitDuration(Duration.ZERO)
+                .build()));
+
+        HedgedCaller hedgedCaller = new HedgedCaller();
+        ReflectionTestUtils.setField(hedgedCaller, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(hedgedCaller, "instanceRestTemplate", restTemplate);
+        ReflectionTestUtils.setField(hedgedCaller, "downstreamGuard", downstreamGuard);
+        ReflectionTestUtils.setField(hedgedCaller, "outboundCallExecutor", outboundCallExecutor);
+        ReflectionTestUtils.setField(hedgedCaller, "meterRegistry", meterRegistry);
+
+        AddressBatchResolver addressBatchResolver = new AddressBatchResolver();
+        ReflectionTestUtils.setField(addressBatchResolver, "ADDRESS_API_URI", addressApiUri);
+        ReflectionTestUtils.setField(addressBatchResolver, "batchEndpointAvailable", batchEnabled);
+        ReflectionTestUtils.setField(addressBatchResolver, "hedgedCaller", hedgedCaller);
+        ReflectionTestUtils.setField(addressBatchResolver, "addressLookupExecutor", addressLookupExecutor);
+        ReflectionTestUtils.setField(addressBatchResolver, "addressBatchScheduler", addressBatchScheduler);
+
+        AddressService addressService = new AddressService();
+        ReflectionTestUtils.setField(addressService, "addressBatchResolver", addressBatchResolver);
+        ReflectionTestUtils.setField(addressService, "addressCache", new AddressCache());
+
+        return addressService;
+    }
+
+    private CloseableHttpClient pooledHttpClient() {
+        return HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(200)
+                        .setMaxConnPerRoute(50)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,64 @@
+package fr.polytech.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompanyCursorTest {
+
+    private static final String ID = UUID.randomUUID().toString();
+
+    @Test
+    void idCursorRoundTrips() {
+        String cursor = CompanyService.encodeCursor("id", ID);
+
+        assertArrayEquals(new String[] { ID }, CompanyService.decodeCursor(cursor, "id"));
+    }
+
+    @Test
+    void nameCursorKeepsColonsInTheName() {
+        String cursor = CompanyService.encodeCursor("name", ID + ":Acme: the company");
+
+        assertArrayEquals(new String[] { ID, "Acme: the company" }, CompanyService.decodeCursor(cursor, "name"));
+    }
+
+    @Test
+    void nameCursorAcceptsEmptyName() {
+        String cursor = CompanyService.encodeCursor("name", ID + ":");
+
+        assertArrayEquals(new String[] { ID, "" }, CompanyService.decodeCursor(cursor, "name"));
+    }
+
+    @Test
+    void cursorIsUrlSafe() {
+        String cursor = CompanyService.encodeCursor("name", ID + ":??>>~~");
+
+        assertArrayEquals(new String[] { ID, "??>>~~" }, CompanyService.decodeCursor(cursor, "name"));
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void cursorOfAnotherSortIsRejected() {
+        String cursor = CompanyService.encodeCursor("id", ID);
+
+        assertThrows(IllegalArgumentException.class, () -> CompanyService.decodeCursor(cursor, "name"));
+    }
+
+    @Test
+    void nameCursorWithoutNameIsRejected() {
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(("name:" + ID).getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> CompanyService.decodeCursor(cursor, "name"));
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CompanyService.decodeCursor("not base64!", "id"));
+    }
+}
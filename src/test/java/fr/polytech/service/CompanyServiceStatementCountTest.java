@@ -0,0 +1,153 @@
+package fr.polytech.service;
+
+import fr.polytech.model.Company;
+import fr.polytech.model.CompanyDetailsDTO;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the number of SQL statements each way of reading companies takes, through the service methods the endpoints
+ * call. The collections are initialized as the serialization of the response does.
+ * <p>
+ * A page of companies takes a number of statements that does not depend on its size. Every other list reads the
+ * collections by batches of 100 companies, so it takes one statement per collection for each 100 companies.
+ */
+@DataJpaTest
+@Import({ CompanyService.class, JacksonAutoConfiguration.class })
+class CompanyServiceStatementCountTest {
+
+    @Autowired
+    private CompanyService companyService;
+
+    @Autowired
+    private TestEntityManager testEntityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @MockBean
+    private AddressService addressService;
+
+    // Other dependencies of the service, not used to read companies
+    @MockBean
+    private HedgedCaller hedgedCaller;
+
+    @MockBean
+    private MembershipCache membershipCache;
+
+    @MockBean
+    private MinimizedCompanySnapshot minimizedCompanySnapshot;
+
+    @MockBean
+    private BucketCleanupService bucketCleanupService;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void companyPageTakesConstantStatementCount() {
+        persistCompanies(5);
+        statistics.clear();
+        initializeCollections(companyService.getCompanyPage(null, 100, "id", null, null).getCompanies());
+        long fewCompaniesStatements = statistics.getPrepareStatementCount();
+        testEntityManager.clear();
+
+        persistCompanies(95);
+        statistics.clear();
+        initializeCollections(companyService.getCompanyPage(null, 100, "id", null, null).getCompanies());
+        long manyCompaniesStatements = statistics.getPrepareStatementCount();
+
+        // The page, then each of the two collections for the whole page
+        assertEquals(3, fewCompaniesStatements);
+        assertEquals(fewCompaniesStatements, manyCompaniesStatements);
+    }
+
+    @Test
+    void allCompaniesTakeTwoStatementsPerHundredCompanies() {
+        persistCompanies(150);
+        statistics.clear();
+
+        List<Company> companies = companyService.getAllCompanies();
+        initializeCollections(companies);
+
+        // The companies, then each of the two collections for 100, then 50 companies
+        assertEquals(150, companies.size());
+        assertEquals(1 + 2 * 2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void exportTakesThreeStatementsPerPage() throws Exception {
+        persistCompanies(150);
+        statistics.clear();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        companyService.exportCompanies(outputStream);
+
+        // Pages of 100 and 50 companies, each read with its two collections
+        assertEquals(150, outputStream.toString().lines().count());
+        assertEquals(2 * 3, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void detailedCompanyTakesTwoStatements() {
+        UUID id = persistCompanies(1).get(0).getId();
+        when(addressService.getAddressListOrLastKnown(any(), any())).thenReturn(new AddressService.AddressListResult(List.of(), false));
+        statistics.clear();
+
+        CompanyDetailsDTO companyDetailsDTO = companyService.getDetailedCompanyById(id, "Bearer token");
+        assertEquals(2, companyDetailsDTO.getDocumentsUrl().size());
+
+        // The company with its addresses, then its documents
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    /**
+     * Initialize the collections of companies, as the serialization of the response does.
+     *
+     * @param companies: the companies.
+     */
+    private void initializeCollections(List<Company> companies) {
+        for (Company company: companies) {
+            assertEquals(2, company.getAddressIdList().size());
+            assertEquals(2, company.getDocumentsUrl().size());
+        }
+    }
+
+    private List<Company> persistCompanies(int count) {
+        List<Company> companies = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            Company company = new Company();
+            company.setName("Company " + i);
+            company.setAddressIdList(List.of(UUID.randomUUID(), UUID.randomUUID()));
+            company.setDocumentsUrl(List.of("http://localhost/document-a", "http://localhost/document-b"));
+            companies.add(testEntityManager.persist(company));
+        }
+
+        testEntityManager.flush();
+        testEntityManager.clear();
+        return companies;
+    }
+}